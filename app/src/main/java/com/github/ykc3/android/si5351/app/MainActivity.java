@@ -41,8 +41,14 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
 
 import com.github.ykc3.android.si5351.Si5351;
+import com.github.ykc3.android.si5351.Si5351CommandQueue;
+import com.github.ykc3.android.si5351.Si5351RegisterImage;
+import com.github.ykc3.android.si5351.Si5351RegisterMapLoader;
+import com.github.ykc3.android.si5351.Si5351StatusMonitor;
 import static com.github.ykc3.android.si5351.Si5351.SI5351_CRYSTAL_LOAD_8PF;
 import static com.github.ykc3.android.si5351.Si5351.SI5351_FREQ_MULT;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_STATUS_LOL_A;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_STATUS_LOL_B;
 import static com.github.ykc3.android.si5351.Si5351.si5351_clock;
 import static com.github.ykc3.android.si5351.Si5351.si5351_clock.*;
 import static com.github.ykc3.android.si5351.Si5351.si5351_pll_input.SI5351_PLL_INPUT_XO;
@@ -51,7 +57,16 @@ import com.github.ykc3.android.usbi2c.UsbI2cAdapter;
 import com.github.ykc3.android.usbi2c.UsbI2cManager;
 import com.github.ykc3.android.widget.decimalnumberpicker.DecimalNumberPicker;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,6 +84,10 @@ public class MainActivity extends AppCompatActivity {
     public static final String SI5351_PREFS_FREQUENCY_CORRECTION_PPM =
             "SI5351_FREQUENCY_CORRECTION_PPM";
 
+    // Register image of the last applied configuration, restored on adapter attach
+    private static final String SI5351_REGISTERS_FILE = "si5351_registers.bin";
+    private static final int SI5351_REGISTERS_FILE_MAGIC = 0x53493531;
+
     private UsbManager usbManager;
 
     private UsbI2cManager usbI2cManager;
@@ -86,7 +105,7 @@ public class MainActivity extends AppCompatActivity {
 
     private DecimalNumberPicker freqCorrectionPicker;
 
-    private final static long SI5351_STATUS_UPDATE_DELAY = 500L;
+    private final static long SI5351_STATUS_POLL_RETRY_DELAY = 1000L;
 
     private CheckBox pllALockedCheckBox;
     private CheckBox pllBLockedCheckBox;
@@ -94,6 +113,9 @@ public class MainActivity extends AppCompatActivity {
     private final Map<si5351_clock, Si5351ClockControls> si5351ClockControlsMap = new HashMap<>();
 
     private Si5351 si5351;
+    private Si5351CommandQueue si5351CommandQueue;
+    private Si5351StatusMonitor si5351StatusMonitor;
+    private final Runnable si5351StatusPoll = this::si5351PollStatus;
 
     private final BroadcastReceiver usbReceiver = new BroadcastReceiver() {
         public void onReceive(Context context, Intent intent) {
@@ -183,6 +205,7 @@ public class MainActivity extends AppCompatActivity {
         super.onPause();
         Log.d(TAG, "Pause activity");
         si5351SaveControls();
+        si5351SaveRegisters();
     }
 
     @Override
@@ -329,6 +352,77 @@ public class MainActivity extends AppCompatActivity {
         freqCorrectionPicker.setValue(prefs.getFloat(SI5351_PREFS_FREQUENCY_CORRECTION_PPM, 0));
     }
 
+    private byte[] si5351GetConfigInputs() {
+        // Inputs the configuration is calculated from, to check the saved register image
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(SI5351_CRYSTAL_LOAD_8PF);
+            out.writeInt(si5351GetCrystalCorrectionPpb(freqCorrectionPicker.getValue()));
+            for (si5351_clock clock : si5351_clock.values()) {
+                Si5351ClockControls controls = si5351GetClockControls(clock);
+                if (controls == null) {
+                    continue;
+                }
+                out.writeBoolean(controls.getOutputStateSwitch().isChecked());
+                out.writeFloat(controls.getFrequencyPicker().getValue());
+                out.writeInt(controls.getOutputDriveStrengthSpinner().getSelectedItemPosition());
+            }
+        } catch (IOException ignored) {
+        }
+        return bytes.toByteArray();
+    }
+
+    private void si5351SaveRegisters() {
+        final Si5351 si5351 = this.si5351;
+        if (si5351 == null) {
+            return;
+        }
+        final byte[] inputs = si5351GetConfigInputs();
+        final File file = new File(getFilesDir(), SI5351_REGISTERS_FILE);
+        // Queued after pending commands, so the image includes them
+        si5351Handler.post(() -> {
+            File tmpFile = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile)))) {
+                out.writeInt(SI5351_REGISTERS_FILE_MAGIC);
+                out.writeShort(inputs.length);
+                out.write(inputs);
+                Si5351RegisterMapLoader.saveBinary(si5351.get_register_image(), out);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Can't save Si5351 registers", e);
+                tmpFile.delete();
+                return;
+            }
+            if (!tmpFile.renameTo(file)) {
+                Log.e(TAG, "Can't save Si5351 registers to " + file);
+            }
+        });
+    }
+
+    private Si5351RegisterImage si5351LoadRegisters(byte[] inputs) {
+        File file = new File(getFilesDir(), SI5351_REGISTERS_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != SI5351_REGISTERS_FILE_MAGIC) {
+                return null;
+            }
+            byte[] savedInputs = new byte[in.readUnsignedShort()];
+            in.readFully(savedInputs);
+            if (!Arrays.equals(savedInputs, inputs)) {
+                Log.d(TAG, "Si5351 settings changed since registers were saved");
+                return null;
+            }
+            return Si5351RegisterMapLoader.loadBinary(in);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't load Si5351 registers", e);
+            return null;
+        }
+    }
+
     private static String si5351GetClockControlsKey(si5351_clock clock, String ctrls) {
         return ctrls + ":" + clock.name();
     }
@@ -374,12 +468,20 @@ public class MainActivity extends AppCompatActivity {
         if (i2cAdapter == null) {
             return;
         }
+        // Device is gone, but the library still holds its last configuration
+        si5351SaveRegisters();
         try {
             i2cAdapter.close();
         } catch (Exception ignored) {
         }
         i2cAdapter = null;
         si5351 = null;
+        if (si5351CommandQueue != null) {
+            si5351CommandQueue.clear();
+            si5351CommandQueue = null;
+        }
+        si5351StatusMonitor = null;
+        si5351Handler.removeCallbacks(si5351StatusPoll);
         setStatus(R.string.adapter_not_found);
         si5351EnableControls(false);
     }
@@ -398,9 +500,24 @@ public class MainActivity extends AppCompatActivity {
         }
 
         si5351 = new Si5351(i2cAdapter);
+        si5351.set_fast_init(true);
+
+        // Pending changes of the same control are replaced by the latest one
+        si5351CommandQueue = new Si5351CommandQueue(si5351, si5351Handler::post);
+        si5351CommandQueue.setErrorListener((key, e) -> {
+            Log.e(TAG, "Can't apply Si5351 setting " + key, e);
+            si5351ScheduleResync();
+        });
+
+        si5351StatusMonitor = new Si5351StatusMonitor(si5351);
+        si5351StatusMonitor.addListener((status, changed) -> runOnUiThread(() -> {
+            pllALockedCheckBox.setChecked((status & SI5351_STATUS_LOL_A) == 0);
+            pllBLockedCheckBox.setChecked((status & SI5351_STATUS_LOL_B) == 0);
+        }));
 
         try {
-            si5351Init();
+            si5351InitOrRestore();
+            si5351ScheduleStatusPoll(0);
             si5351EnableControls(true);
             setStatus(R.string.si5351_found);
         } catch (IOException e) {
@@ -409,6 +526,21 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private void si5351InitOrRestore() throws IOException {
+        Si5351RegisterImage image = si5351LoadRegisters(si5351GetConfigInputs());
+        if (image != null) {
+            try {
+                // Saved image matches current settings, push it without recalculation
+                si5351.restore(image, 0, si5351GetCrystalCorrectionPpb(freqCorrectionPicker.getValue()));
+                Log.d(TAG, "Si5351 registers restored");
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "Can't restore Si5351 registers", e);
+            }
+        }
+        si5351Init();
+    }
+
     private void si5351Init() throws IOException {
         si5351.init(SI5351_CRYSTAL_LOAD_8PF, 0, si5351GetCrystalCorrectionPpb(
                 freqCorrectionPicker.getValue()));
@@ -430,39 +562,26 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void si5351UpdateFrequencyCorrection(float freqCorrPpm) {
-        final Si5351 si5351 = this.si5351;
-        if (si5351 == null) {
+        final Si5351CommandQueue si5351CommandQueue = this.si5351CommandQueue;
+        if (si5351CommandQueue == null) {
             return;
         }
-        si5351Handler.post(() -> {
-            int crystalCorrectionPpb = si5351GetCrystalCorrectionPpb(freqCorrPpm);
-            try {
-                si5351.set_correction(crystalCorrectionPpb, SI5351_PLL_INPUT_XO);
-            } catch (IOException e) {
-                Log.e(TAG, "Can't set Si5351 crystal correction to "
-                        + crystalCorrectionPpb + " PPB", e);
-            }
-        });
+        si5351CommandQueue.setCorrection(si5351GetCrystalCorrectionPpb(freqCorrPpm),
+                SI5351_PLL_INPUT_XO);
     }
 
     private void si5351UpdateOutputState(si5351_clock clock) {
-        final Si5351 si5351 = this.si5351;
-        if (si5351 == null) {
+        final Si5351CommandQueue si5351CommandQueue = this.si5351CommandQueue;
+        if (si5351CommandQueue == null) {
             return;
         }
         boolean outputState = si5351GetClockControls(clock).getOutputStateSwitch().isChecked();
-        si5351Handler.post(() -> {
-            try {
-                si5351.output_enable(clock, outputState);
-            } catch (IOException e) {
-                Log.e(TAG, "Can't " + (outputState ? "enable" : "disable") + " " + clock, e);
-            }
-        });
+        si5351CommandQueue.setOutputEnable(clock, outputState);
     }
 
     private void si5351UpdateOutputDriveStrength(si5351_clock clock) {
-        final Si5351 si5351 = this.si5351;
-        if (si5351 == null) {
+        final Si5351CommandQueue si5351CommandQueue = this.si5351CommandQueue;
+        if (si5351CommandQueue == null) {
             return;
         }
         int selectedItemPosition = si5351GetClockControls(clock).getOutputDriveStrengthSpinner()
@@ -483,47 +602,64 @@ public class MainActivity extends AppCompatActivity {
                 driveStrength = Si5351.si5351_drive.SI5351_DRIVE_8MA;
                 break;
         }
-        si5351Handler.post(() -> {
-            try {
-                si5351.drive_strength(clock, driveStrength);
-            } catch (IOException e) {
-                Log.e(TAG, "Can't set " + clock + " output drive strength to " + driveStrength, e);
-            }
-        });
+        si5351CommandQueue.setDriveStrength(clock, driveStrength);
     }
 
     private void si5351UpdateClockFrequency(si5351_clock clock) {
-        final Si5351 si5351 = this.si5351;
-        if (si5351 == null) {
+        final Si5351CommandQueue si5351CommandQueue = this.si5351CommandQueue;
+        if (si5351CommandQueue == null) {
             return;
         }
         float freqKhz = si5351GetClockControls(clock).getFrequencyPicker().getValue();
-        si5351Handler.post(() -> {
+        // Fast picker scrolling replaces not yet applied frequencies of this clock
+        si5351CommandQueue.submit(Si5351CommandQueue.frequencyKey(clock), si5351 -> {
             try {
                 si5351.set_freq((long) (freqKhz * 1000 * SI5351_FREQ_MULT), clock);
-                si5351UpdateStatus();
+                si5351ScheduleStatusPoll(0);
             } catch (IOException e) {
                 Log.e(TAG, "Can't set " + clock + " frequency to " + freqKhz + " kHz", e);
+                si5351ScheduleResync();
             }
         });
     }
 
-    private void si5351UpdateStatus() {
+    private void si5351ScheduleResync() {
         final Si5351 si5351 = this.si5351;
         if (si5351 == null) {
             return;
         }
-
-        si5351Handler.postDelayed(() -> {
+        // Bring the device in line with the settings after a transient bus error,
+        // rewriting only the registers that diverged, without output glitches
+        si5351Handler.post(() -> {
             try {
-                si5351.update_status();
-                runOnUiThread(() -> {
-                    pllALockedCheckBox.setChecked(!si5351.dev_status.LOL_A);
-                    pllBLockedCheckBox.setChecked(!si5351.dev_status.LOL_B);
-                });
-            } catch (Exception e) {
-                Log.e(TAG, "Can't update Si5351 status", e);
+                int diverged = si5351.resync();
+                Log.d(TAG, "Si5351 resynced, " + diverged + " registers rewritten");
+                si5351ScheduleStatusPoll(0);
+            } catch (IOException | IllegalStateException e) {
+                Log.e(TAG, "Can't resync Si5351", e);
             }
-        }, SI5351_STATUS_UPDATE_DELAY);
+        });
+    }
+
+    private void si5351ScheduleStatusPoll(long delay) {
+        si5351Handler.removeCallbacks(si5351StatusPoll);
+        si5351Handler.postDelayed(si5351StatusPoll, delay);
+    }
+
+    private void si5351PollStatus() {
+        final Si5351StatusMonitor si5351StatusMonitor = this.si5351StatusMonitor;
+        if (si5351StatusMonitor == null) {
+            return;
+        }
+
+        long delay;
+        try {
+            // Monitor polls often right after PLL changes and backs off while stable
+            delay = si5351StatusMonitor.poll();
+        } catch (Exception e) {
+            Log.e(TAG, "Can't update Si5351 status", e);
+            delay = SI5351_STATUS_POLL_RETRY_DELAY;
+        }
+        si5351ScheduleStatusPoll(delay);
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_CRYSTAL_LOAD_8PF;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_FREQ_MULT;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK0;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK1;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK2;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK3;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK6;
+import static com.github.ykc3.android.si5351.Si5351.si5351_pll.SI5351_PLLA;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the tuning path doesn't allocate once warmed up, using
+ * the per-thread allocation counter of the host JVM.
+ */
+public class Si5351AllocationTest {
+    // Sweeps run before measuring, so the calls are JIT-compiled
+    private static final int WARMUP_SWEEPS = 50;
+    // Measurements taken, the lowest one is checked to skip one-off JVM allocations
+    private static final int ATTEMPTS = 5;
+
+    private interface Call {
+        void run(int index) throws IOException;
+    }
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+
+    private long[] clkFreqs;
+    private long[] clk67Freqs;
+    private long[] pllFreqs;
+
+    @Before
+    public void setup() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        clkFreqs = Si5351Sweep.log(Si5351Sweep.CLKOUT_MIN_FREQ, Si5351Sweep.CLKOUT_MAX_FREQ);
+        clk67Freqs = Si5351Sweep.log(Si5351Sweep.CLKOUT_MIN_FREQ, Si5351Sweep.CLKOUT67_MAX_FREQ);
+        pllFreqs = Si5351Sweep.log(Si5351Sweep.PLL_MIN_FREQ, Si5351Sweep.PLL_MAX_FREQ);
+    }
+
+    private static Si5351 newDevice(Si5351Transport transport) throws IOException {
+        Si5351 si5351 = new Si5351(transport);
+        si5351.init(SI5351_CRYSTAL_LOAD_8PF, 0, 0);
+        // CLK1 shares PLLA with CLK0, so outputs above 100 MHz retune it
+        si5351.set_freq(10_000_000L * SI5351_FREQ_MULT, SI5351_CLK1);
+        return si5351;
+    }
+
+    private long allocatedBytes() {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private long sweepAllocatedBytes(Call call) throws IOException {
+        for (int i = 0; i < WARMUP_SWEEPS * Si5351Sweep.POINTS; i++) {
+            call.run(i & Si5351Sweep.MASK);
+        }
+        long min = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            // Allocations of the counter query itself, if any
+            long start = allocatedBytes();
+            long overhead = allocatedBytes() - start;
+
+            start = allocatedBytes();
+            for (int i = 0; i < Si5351Sweep.POINTS; i++) {
+                call.run(i);
+            }
+            min = Math.min(min, allocatedBytes() - start - overhead);
+        }
+        return min;
+    }
+
+    @Test
+    public void setFreqNullTransport() throws IOException {
+        Si5351 si5351 = newDevice(new Si5351NullTransport());
+        assertEquals(0, sweepAllocatedBytes(i -> si5351.set_freq(clkFreqs[i], SI5351_CLK0)));
+    }
+
+    @Test
+    public void setFreqMemoryTransport() throws IOException {
+        Si5351 si5351 = newDevice(new Si5351MemoryTransport());
+        assertEquals(0, sweepAllocatedBytes(i -> si5351.set_freq(clkFreqs[i], SI5351_CLK0)));
+    }
+
+    @Test
+    public void setFreqClk6() throws IOException {
+        Si5351 si5351 = newDevice(new Si5351NullTransport());
+        assertEquals(0, sweepAllocatedBytes(i -> si5351.set_freq(clk67Freqs[i], SI5351_CLK6)));
+    }
+
+    @Test
+    public void setPll() throws IOException {
+        Si5351 si5351 = newDevice(new Si5351MemoryTransport());
+        assertEquals(0, sweepAllocatedBytes(i -> si5351.set_pll(pllFreqs[i], SI5351_PLLA)));
+    }
+
+    @Test
+    public void setMs() throws IOException {
+        Si5351 si5351 = newDevice(new Si5351MemoryTransport());
+        Si5351.Si5351RegSet reg = new Si5351.Si5351RegSet();
+        assertEquals(0, sweepAllocatedBytes(i -> {
+            reg.p1 = 1000 + i;
+            reg.p2 = i;
+            reg.p3 = Si5351Sweep.POINTS;
+            si5351.set_ms(SI5351_CLK2, reg, false, 0, false);
+        }));
+    }
+
+    @Test
+    public void setFreqManual() throws IOException {
+        Si5351 si5351 = newDevice(new Si5351MemoryTransport());
+        long pllFreq = 800_000_000L * SI5351_FREQ_MULT;
+        assertEquals(0, sweepAllocatedBytes(i -> si5351.set_freq_manual(
+                1_000_000L * SI5351_FREQ_MULT + i * 1000L, pllFreq, SI5351_CLK3)));
+    }
+}
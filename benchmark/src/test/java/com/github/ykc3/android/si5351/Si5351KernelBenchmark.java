@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PLL_FIXED;
+import static com.github.ykc3.android.si5351.Si5351.si5351_pll.SI5351_PLLA;
+
+/**
+ * Frequency calculation kernels, each invocation taking the next point
+ * of a 4 kHz - 225 MHz sweep (up to 150 MHz for MS6/MS7).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Si5351KernelBenchmark {
+    private final Si5351 si5351 = new Si5351(new Si5351NullTransport());
+    private final Si5351.Si5351RegSet reg = new Si5351.Si5351RegSet();
+
+    // Output frequencies
+    private long[] clkFreqs;
+    private long[] clk67Freqs;
+    // Multisynth output frequencies, i.e. output frequencies multiplied by R divider
+    private long[] msFreqs;
+    private long[] ms67Freqs;
+    private long[] pllFreqs;
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        clkFreqs = Si5351Sweep.log(Si5351Sweep.CLKOUT_MIN_FREQ, Si5351Sweep.CLKOUT_MAX_FREQ);
+        clk67Freqs = Si5351Sweep.log(Si5351Sweep.CLKOUT_MIN_FREQ, Si5351Sweep.CLKOUT67_MAX_FREQ);
+        pllFreqs = Si5351Sweep.log(Si5351Sweep.PLL_MIN_FREQ, Si5351Sweep.PLL_MAX_FREQ);
+
+        msFreqs = new long[Si5351Sweep.POINTS];
+        ms67Freqs = new long[Si5351Sweep.POINTS];
+        for (int i = 0; i < Si5351Sweep.POINTS; i++) {
+            msFreqs[i] = clkFreqs[i] << si5351.select_r_div(clkFreqs[i]);
+            ms67Freqs[i] = clk67Freqs[i] << si5351.select_r_div_ms67(clk67Freqs[i]);
+        }
+    }
+
+    private int next() {
+        return index = (index + 1) & Si5351Sweep.MASK;
+    }
+
+    @Benchmark
+    public long pllCalc() {
+        return si5351.pll_calc(SI5351_PLLA, pllFreqs[next()], reg, 0, false);
+    }
+
+    @Benchmark
+    public long multisynthCalcFixedPll() {
+        return si5351.multisynth_calc(msFreqs[next()], SI5351_PLL_FIXED, reg);
+    }
+
+    @Benchmark
+    public long multisynthCalcPllSearch() {
+        // PLL frequency search used for outputs above 100 MHz, including DIVBY4 range
+        return si5351.multisynth_calc(msFreqs[next()], 0, reg);
+    }
+
+    @Benchmark
+    public long multisynth67Calc() {
+        return si5351.multisynth67_calc(ms67Freqs[next()], 0, reg);
+    }
+
+    @Benchmark
+    public int selectRDiv() {
+        return si5351.select_r_div(clkFreqs[next()]);
+    }
+
+    @Benchmark
+    public int selectRDivMs67() {
+        return si5351.select_r_div_ms67(clk67Freqs[next()]);
+    }
+}
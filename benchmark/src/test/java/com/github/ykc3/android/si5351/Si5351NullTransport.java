@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.util.Arrays;
+
+/**
+ * Register sink discarding all writes. Reads return zeros, so the device
+ * always appears initialized.
+ */
+final class Si5351NullTransport implements Si5351Transport {
+    @Override
+    public byte readRegByte(int reg) {
+        return 0;
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) {
+        Arrays.fill(buffer, 0, length, (byte) 0);
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) {
+    }
+
+    @Override
+    public void writeRegBuffer(int reg, byte[] buffer, int length) {
+    }
+}
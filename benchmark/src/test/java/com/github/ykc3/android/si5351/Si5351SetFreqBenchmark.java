@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_CRYSTAL_LOAD_8PF;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_FREQ_MULT;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK0;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK1;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK6;
+
+/**
+ * Full set_freq() calls against a register sink, sweeping 4 kHz - 225 MHz
+ * (up to 150 MHz for CLK6). CLK1 shares PLLA with CLK0, so outputs above
+ * 100 MHz take the shared PLL retune path. Channel hopping over a few
+ * hundred frequencies is measured with and without the parameter cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Si5351SetFreqBenchmark {
+    private static final int HOP_CHANNELS = 256;
+    private static final long HOP_BASE_FREQ = 7_000_000L * SI5351_FREQ_MULT;
+    private static final long HOP_STEP = 500L * SI5351_FREQ_MULT;
+
+    private Si5351 si5351;
+    private Si5351 si5351Cached;
+
+    private long[] clkFreqs;
+    private long[] clk67Freqs;
+    private final long[] hopFreqs = new long[HOP_CHANNELS];
+
+    private int index;
+    private int hopIndex;
+
+    @Setup
+    public void setup() throws IOException {
+        si5351 = new Si5351(new Si5351NullTransport());
+        si5351.init(SI5351_CRYSTAL_LOAD_8PF, 0, 0);
+        si5351.set_freq(10_000_000L * SI5351_FREQ_MULT, SI5351_CLK1);
+
+        clkFreqs = Si5351Sweep.log(Si5351Sweep.CLKOUT_MIN_FREQ, Si5351Sweep.CLKOUT_MAX_FREQ);
+        clk67Freqs = Si5351Sweep.log(Si5351Sweep.CLKOUT_MIN_FREQ, Si5351Sweep.CLKOUT67_MAX_FREQ);
+
+        si5351Cached = new Si5351(new Si5351NullTransport());
+        si5351Cached.init(SI5351_CRYSTAL_LOAD_8PF, 0, 0);
+        si5351Cached.set_parameter_cache(new Si5351ParameterCache(2 * HOP_CHANNELS));
+
+        for (int i = 0; i < HOP_CHANNELS; i++) {
+            hopFreqs[i] = HOP_BASE_FREQ + i * HOP_STEP;
+        }
+    }
+
+    private long nextHop() {
+        hopIndex = (hopIndex + 1) & (HOP_CHANNELS - 1);
+        return hopFreqs[hopIndex];
+    }
+
+    private int next() {
+        return index = (index + 1) & Si5351Sweep.MASK;
+    }
+
+    @Benchmark
+    public boolean setFreqClk0() throws IOException {
+        return si5351.set_freq(clkFreqs[next()], SI5351_CLK0);
+    }
+
+    @Benchmark
+    public boolean setFreqClk6() throws IOException {
+        return si5351.set_freq(clk67Freqs[next()], SI5351_CLK6);
+    }
+
+    @Benchmark
+    public boolean hopClk0() throws IOException {
+        return si5351.set_freq(nextHop(), SI5351_CLK0);
+    }
+
+    @Benchmark
+    public boolean hopClk0Cached() throws IOException {
+        return si5351Cached.set_freq(nextHop(), SI5351_CLK0);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_FREQ_MULT;
+
+/**
+ * Frequency sweeps for the benchmarks.
+ */
+final class Si5351Sweep {
+    // Power of two, so the sweep index can be wrapped by masking
+    static final int POINTS = 1024;
+    static final int MASK = POINTS - 1;
+
+    static final long CLKOUT_MIN_FREQ = 4_000L * SI5351_FREQ_MULT;
+    static final long CLKOUT_MAX_FREQ = 225_000_000L * SI5351_FREQ_MULT;
+    static final long CLKOUT67_MAX_FREQ = 150_000_000L * SI5351_FREQ_MULT - 1;
+    static final long PLL_MIN_FREQ = 600_000_000L * SI5351_FREQ_MULT;
+    static final long PLL_MAX_FREQ = 900_000_000L * SI5351_FREQ_MULT;
+
+    private Si5351Sweep() {
+    }
+
+    /**
+     * Logarithmically spaced frequencies, both ends included.
+     *
+     * @param min first frequency in Hz * 100
+     * @param max last frequency in Hz * 100
+     * @return {@link #POINTS} frequencies in Hz * 100
+     */
+    static long[] log(long min, long max) {
+        long[] freqs = new long[POINTS];
+        double ratio = Math.log((double) max / min) / (POINTS - 1);
+        for (int i = 0; i < POINTS; i++) {
+            freqs[i] = Math.round(min * Math.exp(ratio * i));
+        }
+        freqs[0] = min;
+        freqs[POINTS - 1] = max;
+        return freqs;
+    }
+}
@@ -19,9 +19,10 @@
 package com.github.ykc3.android.si5351;
 
 import com.github.ykc3.android.usbi2c.UsbI2cAdapter;
-import com.github.ykc3.android.usbi2c.UsbI2cDevice;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
 
 import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK0;
 import static com.github.ykc3.android.si5351.Si5351.si5351_clock.SI5351_CLK1;
@@ -193,6 +194,20 @@ public class Si5351 {
 
     public static final int RFRAC_DENOM = 1000000;
 
+    public static final int SI5351_REGISTER_MAP_SIZE = 188;
+    public static final int SI5351_BURST_MAX_LENGTH = 32;
+    public static final int SI5351_BURST_GAP_MAX = 8;
+
+    public static final long SI5351_SYS_INIT_TIMEOUT_MS = 500L;
+    public static final long SI5351_SYS_INIT_POLL_MIN_MS = 1L;
+    public static final long SI5351_SYS_INIT_POLL_MAX_MS = 32L;
+
+    public static final int SI5351_SWEEP_MAX_STEPS = 1 << 20;
+    public static final int SI5351_TONES_MAX = 256;
+    public static final int SI5351_PHASE_OFFSET_MAX = 127;
+
+    public static final int SI5351_VERIFY_RETRIES = 2;
+
     public enum si5351_clock {
         SI5351_CLK0, SI5351_CLK1, SI5351_CLK2, SI5351_CLK3,
         SI5351_CLK4, SI5351_CLK5, SI5351_CLK6, SI5351_CLK7
@@ -222,6 +237,10 @@ public class Si5351 {
         SI5351_PLL_INPUT_XO, SI5351_PLL_INPUT_CLKIN
     }
 
+    public enum si5351_verify {
+        SI5351_VERIFY_OFF, SI5351_VERIFY_ALL, SI5351_VERIFY_SAMPLED
+    }
+
     /* Struct definitions */
 
     public static class Si5351RegSet {
@@ -245,6 +264,22 @@ public class Si5351 {
         public boolean LOS_STKY;
     }
 
+    public interface Si5351Transaction {
+        void run() throws IOException;
+    }
+
+    public interface Si5351VerifyListener {
+        /**
+         * Called when a register read back differs from the written value.
+         *
+         * addr - Register address
+         * written - Value written to the register
+         * read - Value read back
+         * attempt - Write attempt, the write is retried up to SI5351_VERIFY_RETRIES times
+         */
+        void onVerifyMismatch(int addr, byte written, byte read, int attempt);
+    }
+
     // Public
 
     public final Si5351Status dev_status = new Si5351Status();
@@ -268,7 +303,82 @@ public class Si5351 {
     private int clkin_div;
     private final boolean[] clk_first_set = new boolean[si5351_clock.values().length];
 
-    private final UsbI2cDevice device;
+    // Implemented register address ranges, first and last address of each block
+    private static final int[][] reg_blocks = {
+            {0, 3}, {9, 9}, {15, 92}, {149, 170}, {177, 177}, {183, 183}, {187, 187}
+    };
+
+    // Shadow copy of the device registers, kept current by every write
+    private final byte[] reg_shadow = new byte[SI5351_REGISTER_MAP_SIZE];
+    private final boolean[] reg_shadow_valid = new boolean[SI5351_REGISTER_MAP_SIZE];
+    // Registers with intended value kept in the shadow, but not written because of an I/O error
+    private final boolean[] reg_shadow_pending = new boolean[SI5351_REGISTER_MAP_SIZE];
+    private boolean trust_hardware;
+    private boolean force_full_writes;
+    private boolean fast_init;
+    private boolean best_fraction;
+
+    // Register image applied by reset() in fast init mode, built on demand
+    private Si5351RegisterImage reset_image;
+
+    // Register writes buffered by the current transaction
+    private int txn_depth;
+    private final byte[] txn_regs = new byte[SI5351_REGISTER_MAP_SIZE];
+    private final boolean[] txn_dirty = new boolean[SI5351_REGISTER_MAP_SIZE];
+    private int txn_dirty_first = SI5351_REGISTER_MAP_SIZE;
+    private int txn_dirty_last = -1;
+    private int txn_pll_reset;
+    // PLL resets requested by a failed flush, issued by resync()
+    private int pll_reset_pending;
+
+    private int pll_change_count;
+
+    private final byte[] burst_buf = new byte[SI5351_BURST_MAX_LENGTH];
+
+    // Scratch state of the tuning path, reused to keep it allocation-free
+    private final Si5351RegSet ms_scratch = new Si5351RegSet();
+    private final Si5351RegSet pll_scratch = new Si5351RegSet();
+    private final byte[] ms_params = new byte[SI5351_PARAMETERS_LENGTH];
+    private final byte[] pll_params = new byte[SI5351_PARAMETERS_LENGTH];
+
+    // Multisynth P2 register bytes of each tone set by set_tones(), null if none
+    private final byte[][] tone_params = new byte[si5351_clock.values().length][];
+    private final long[][] tone_freqs = new long[si5351_clock.values().length][];
+    private final long[] tone_pll_freq = new long[si5351_clock.values().length];
+    private final byte[] tone_buf = new byte[SI5351_TONE_PARAMS_LENGTH];
+
+    // Tones only differ in multisynth P2, held by the last 3 parameter registers
+    private static final int SI5351_TONE_PARAMS_OFFSET = 5;
+    private static final int SI5351_TONE_PARAMS_LENGTH = SI5351_PARAMETERS_LENGTH - SI5351_TONE_PARAMS_OFFSET;
+
+    // Cached copy of si5351_clock.values(), which clones the array on each call
+    private static final si5351_clock[] SI5351_CLOCKS = si5351_clock.values();
+
+    private final Si5351Transport transport;
+
+    // Bus traffic metrics, null if disabled
+    private Si5351Metrics metrics;
+
+    // Computed parameters cache, null if disabled
+    private Si5351ParameterCache param_cache;
+
+    // Readback verification of register writes
+    private si5351_verify verify_mode = si5351_verify.SI5351_VERIFY_OFF;
+    private int verify_interval = 1;
+    private int verify_count;
+    private Si5351VerifyListener verify_listener;
+    private final byte[] verify_buf = new byte[SI5351_REGISTER_MAP_SIZE];
+    private final byte[] verify_data = new byte[1];
+
+    // Nesting depth of public operations, state is published when it drops to zero
+    private int op_depth;
+    private boolean state_publishing;
+    private long state_sequence;
+    private volatile Si5351State state;
+
+    // Last read status registers, -1 if not read yet
+    private int status_reg = -1;
+    private int int_status_reg = -1;
 
     // Public functions
 
@@ -277,7 +387,11 @@ public class Si5351 {
     }
 
     public Si5351(UsbI2cAdapter i2cAdapter, int i2c_addr) {
-        device = i2cAdapter.getDevice(i2c_addr);
+        this(new Si5351UsbI2cTransport(i2cAdapter, i2c_addr));
+    }
+
+    public Si5351(Si5351Transport transport) {
+        this.transport = transport;
 
         xtal_freq[0] = SI5351_XTAL_FREQ;
 
@@ -299,91 +413,177 @@ public class Si5351 {
      * corr - Frequency correction constant in parts-per-billion
      */
     public void init(int xtal_load_c, int xo_freq, int corr) throws IOException {
-        // Wait for SYS_INIT flag to be clear, indicating that device is ready
-        byte status_reg;
-        do {
-            status_reg = si5351_read(SI5351_DEVICE_STATUS);
-        } while (((status_reg >> 7) & 0x01) == 1);
-
-        // Set crystal load capacitance
-        si5351_write(SI5351_CRYSTAL_LOAD, (byte) ((xtal_load_c & SI5351_CRYSTAL_LOAD_MASK) | 0b00010010));
-
-        // Set up the XO reference frequency
-        if (xo_freq != 0) {
-            set_ref_freq(xo_freq, SI5351_PLL_INPUT_XO);
-        } else {
-            set_ref_freq(SI5351_XTAL_FREQ, SI5351_PLL_INPUT_XO);
-        }
+        op_begin("init");
+        try {
+            // Wait for SYS_INIT flag to be clear, indicating that device is ready
+            wait_sys_init();
+
+            // Set crystal load capacitance
+            si5351_write(SI5351_CRYSTAL_LOAD, (byte) ((xtal_load_c & SI5351_CRYSTAL_LOAD_MASK) | 0b00010010));
+
+            // Set up the XO reference frequency
+            if (xo_freq != 0) {
+                set_ref_freq(xo_freq, SI5351_PLL_INPUT_XO);
+            } else {
+                set_ref_freq(SI5351_XTAL_FREQ, SI5351_PLL_INPUT_XO);
+            }
 
-        // Set the frequency calibration for the XO
-        set_correction(corr, SI5351_PLL_INPUT_XO);
+            // Set the frequency calibration for the XO, PLLs are programmed by reset()
+            ref_correction[SI5351_PLL_INPUT_XO.ordinal()] = corr;
+            reset_image = null;
+            param_cache_clear();
 
-        reset();
+            reset();
+        } finally {
+            op_end();
+        }
     }
 
     /**
      * Call to reset the Si5351 to the state initialized by the library.
      */
     public void reset() throws IOException {
-        // Initialize the CLK outputs according to flowchart in datasheet
-        // First, turn them off
-        si5351_write(16, (byte) 0x80);
-        si5351_write(17, (byte) 0x80);
-        si5351_write(18, (byte) 0x80);
-        si5351_write(19, (byte) 0x80);
-        si5351_write(20, (byte) 0x80);
-        si5351_write(21, (byte) 0x80);
-        si5351_write(22, (byte) 0x80);
-        si5351_write(23, (byte) 0x80);
-
-        // Turn the clocks back on...
-        si5351_write(16, (byte) 0x0c);
-        si5351_write(17, (byte) 0x0c);
-        si5351_write(18, (byte) 0x0c);
-        si5351_write(19, (byte) 0x0c);
-        si5351_write(20, (byte) 0x0c);
-        si5351_write(21, (byte) 0x0c);
-        si5351_write(22, (byte) 0x0c);
-        si5351_write(23, (byte) 0x0c);
-
-        // Set PLLA and PLLB to 800 MHz for automatic tuning
-        set_pll(SI5351_PLL_FIXED, SI5351_PLLA);
-        set_pll(SI5351_PLL_FIXED, SI5351_PLLB);
-
-        // Make PLL to CLK assignments for automatic tuning
-        pll_assignment[0] = SI5351_PLLA;
-        pll_assignment[1] = SI5351_PLLA;
-        pll_assignment[2] = SI5351_PLLA;
-        pll_assignment[3] = SI5351_PLLA;
-        pll_assignment[4] = SI5351_PLLA;
-        pll_assignment[5] = SI5351_PLLA;
-        pll_assignment[6] = SI5351_PLLB;
-        pll_assignment[7] = SI5351_PLLB;
-
-        set_ms_source(SI5351_CLK0, SI5351_PLLA);
-        set_ms_source(SI5351_CLK1, SI5351_PLLA);
-        set_ms_source(SI5351_CLK2, SI5351_PLLA);
-        set_ms_source(SI5351_CLK3, SI5351_PLLA);
-        set_ms_source(SI5351_CLK4, SI5351_PLLA);
-        set_ms_source(SI5351_CLK5, SI5351_PLLA);
-        set_ms_source(SI5351_CLK6, SI5351_PLLB);
-        set_ms_source(SI5351_CLK7, SI5351_PLLB);
-
-        // Reset the VCXO param
-        si5351_write(SI5351_VXCO_PARAMETERS_LOW, (byte) 0);
-        si5351_write(SI5351_VXCO_PARAMETERS_MID, (byte) 0);
-        si5351_write(SI5351_VXCO_PARAMETERS_HIGH, (byte) 0);
-
-        // Then reset the PLLs
-        pll_reset(SI5351_PLLA);
-        pll_reset(SI5351_PLLB);
-
-        // Set initial frequencies
+        op_begin("reset");
+        try {
+            // Fill the register shadow from the device
+            shadow_load();
+
+            if (fast_init) {
+                reset_fast();
+                return;
+            }
+
+            // Initialize the CLK outputs according to flowchart in datasheet
+            // First, turn them off
+            si5351_write(16, (byte) 0x80);
+            si5351_write(17, (byte) 0x80);
+            si5351_write(18, (byte) 0x80);
+            si5351_write(19, (byte) 0x80);
+            si5351_write(20, (byte) 0x80);
+            si5351_write(21, (byte) 0x80);
+            si5351_write(22, (byte) 0x80);
+            si5351_write(23, (byte) 0x80);
+
+            // Turn the clocks back on...
+            si5351_write(16, (byte) 0x0c);
+            si5351_write(17, (byte) 0x0c);
+            si5351_write(18, (byte) 0x0c);
+            si5351_write(19, (byte) 0x0c);
+            si5351_write(20, (byte) 0x0c);
+            si5351_write(21, (byte) 0x0c);
+            si5351_write(22, (byte) 0x0c);
+            si5351_write(23, (byte) 0x0c);
+
+            // Set PLLA and PLLB to 800 MHz for automatic tuning
+            set_pll(SI5351_PLL_FIXED, SI5351_PLLA);
+            set_pll(SI5351_PLL_FIXED, SI5351_PLLB);
+
+            // Make PLL to CLK assignments for automatic tuning
+            pll_assignment[0] = SI5351_PLLA;
+            pll_assignment[1] = SI5351_PLLA;
+            pll_assignment[2] = SI5351_PLLA;
+            pll_assignment[3] = SI5351_PLLA;
+            pll_assignment[4] = SI5351_PLLA;
+            pll_assignment[5] = SI5351_PLLA;
+            pll_assignment[6] = SI5351_PLLB;
+            pll_assignment[7] = SI5351_PLLB;
+
+            set_ms_source(SI5351_CLK0, SI5351_PLLA);
+            set_ms_source(SI5351_CLK1, SI5351_PLLA);
+            set_ms_source(SI5351_CLK2, SI5351_PLLA);
+            set_ms_source(SI5351_CLK3, SI5351_PLLA);
+            set_ms_source(SI5351_CLK4, SI5351_PLLA);
+            set_ms_source(SI5351_CLK5, SI5351_PLLA);
+            set_ms_source(SI5351_CLK6, SI5351_PLLB);
+            set_ms_source(SI5351_CLK7, SI5351_PLLB);
+
+            // Reset the VCXO param
+            si5351_write(SI5351_VXCO_PARAMETERS_LOW, (byte) 0);
+            si5351_write(SI5351_VXCO_PARAMETERS_MID, (byte) 0);
+            si5351_write(SI5351_VXCO_PARAMETERS_HIGH, (byte) 0);
+
+            // Then reset the PLLs
+            pll_reset(SI5351_PLLA);
+            pll_reset(SI5351_PLLB);
+
+            // Set initial frequencies
+            for (si5351_clock clk : si5351_clock.values()) {
+                clk_freq[clk.ordinal()] = 0;
+                output_enable(clk, false);
+                clk_first_set[clk.ordinal()] = false;
+            }
+            Arrays.fill(tone_params, null);
+        } finally {
+            op_end();
+        }
+    }
+
+    private void reset_fast() throws IOException {
+        if (reset_image == null) {
+            reset_image = build_reset_image();
+        }
+
+        // Power down the CLK outputs in a single burst
+        byte[] params = new byte[8];
+        Arrays.fill(params, (byte) SI5351_CLK_POWERDOWN);
+        si5351_write_bulk(SI5351_CLK0_CTRL, params.length, params);
+
+        // Then write the precomputed image and reset the PLLs
+        begin_transaction();
+        for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+            if (reset_image.contains(addr)) {
+                txn_stage(addr, reset_image.get(addr));
+            }
+        }
+        txn_stage(SI5351_PLL_RESET, (byte) (SI5351_PLL_RESET_A | SI5351_PLL_RESET_B));
+        commit_transaction();
+
+        plla_freq = SI5351_PLL_FIXED;
+        pllb_freq = SI5351_PLL_FIXED;
+
         for (si5351_clock clk : si5351_clock.values()) {
+            pll_assignment[clk.ordinal()] = (clk.ordinal() <= SI5351_CLK5.ordinal()) ? SI5351_PLLA : SI5351_PLLB;
             clk_freq[clk.ordinal()] = 0;
-            output_enable(clk, false);
             clk_first_set[clk.ordinal()] = false;
         }
+        Arrays.fill(tone_params, null);
+    }
+
+    private Si5351RegisterImage build_reset_image() {
+        Si5351RegisterImage.Builder builder = Si5351RegisterImage.builder();
+        Si5351RegSet pll_reg = new Si5351RegSet();
+        byte[] params = new byte[SI5351_PARAMETERS_LENGTH];
+
+        // All outputs disabled
+        builder.set(SI5351_OUTPUT_ENABLE_CTRL, (byte) 0xFF);
+
+        // CLK outputs powered up, MS0-MS5 fed by PLLA and MS6-MS7 by PLLB
+        for (si5351_clock clk : si5351_clock.values()) {
+            int reg_val = SI5351_CLK_INPUT_MULTISYNTH_N;
+            if (clk.ordinal() > SI5351_CLK5.ordinal()) {
+                reg_val |= SI5351_CLK_PLL_SELECT;
+            }
+            builder.set(SI5351_CLK0_CTRL + clk.ordinal(), (byte) reg_val);
+        }
+
+        // PLLA and PLLB at 800 MHz for automatic tuning
+        pll_calc(SI5351_PLLA, SI5351_PLL_FIXED, pll_reg, ref_correction[plla_ref_osc.ordinal()], false);
+        pll_pack(pll_reg, params);
+        for (int i = 0; i < SI5351_PARAMETERS_LENGTH; i++) {
+            builder.set(SI5351_PLLA_PARAMETERS + i, params[i]);
+        }
+        pll_calc(SI5351_PLLB, SI5351_PLL_FIXED, pll_reg, ref_correction[pllb_ref_osc.ordinal()], false);
+        pll_pack(pll_reg, params);
+        for (int i = 0; i < SI5351_PARAMETERS_LENGTH; i++) {
+            builder.set(SI5351_PLLB_PARAMETERS + i, params[i]);
+        }
+
+        // VCXO param cleared
+        builder.set(SI5351_VXCO_PARAMETERS_LOW, (byte) 0);
+        builder.set(SI5351_VXCO_PARAMETERS_MID, (byte) 0);
+        builder.set(SI5351_VXCO_PARAMETERS_HIGH, (byte) 0);
+
+        return builder.build();
     }
 
     /**
@@ -394,7 +594,28 @@ public class Si5351 {
      * clk - Clock output (use the si5351_clock enum)
      */
     public boolean set_freq(long freq, si5351_clock clk) throws IOException {
-        Si5351RegSet ms_reg = new Si5351RegSet();
+        op_begin("set_freq");
+        try {
+            boolean result;
+
+            // Coalesce all register writes into a minimal set of bursts
+            begin_transaction();
+            try {
+                result = set_freq_internal(freq, clk);
+            } catch (IOException | RuntimeException e) {
+                abort_transaction();
+                throw e;
+            }
+            commit_transaction();
+
+            return result;
+        } finally {
+            op_end();
+        }
+    }
+
+    private boolean set_freq_internal(long freq, si5351_clock clk) throws IOException {
+        Si5351RegSet ms_reg = ms_scratch;
         long pll_freq;
         boolean int_mode = false;
         boolean div_by_4 = false;
@@ -447,27 +668,8 @@ public class Si5351 {
                 for (int i = 0; i < 6; i++) {
                     if (clk_freq[i] != 0) {
                         if (pll_assignment[i] == pll_assignment[clk.ordinal()]) {
-                            Si5351RegSet temp_reg = new Si5351RegSet();
-
-                            long[] temp_freq = new long[1];
-
-                            // Select the proper R div value
-                            temp_freq[0] = clk_freq[i];
-                            r_div = select_r_div(temp_freq);
-
-                            multisynth_calc(temp_freq[0], pll_freq, temp_reg);
-
-                            // If freq > 150 MHz, we need to use DIVBY4 and integer mode
-                            if (temp_freq[0] >= SI5351_MULTISYNTH_DIVBY4_FREQ * SI5351_FREQ_MULT) {
-                                div_by_4 = true;
-                                int_mode = true;
-                            } else {
-                                div_by_4 = false;
-                                int_mode = false;
-                            }
-
                             // Set multisynth registers
-                            set_ms(si5351_clock.values()[i], temp_reg, int_mode, r_div, div_by_4);
+                            set_ms_freq(SI5351_CLOCKS[i], clk_freq[i], pll_freq);
                         }
                     }
                 }
@@ -483,21 +685,13 @@ public class Si5351 {
                     clk_first_set[clk.ordinal()] = true;
                 }
 
-                // Select the proper R div value
-                long[] temp_freq = new long[]{freq};
-                r_div = select_r_div(temp_freq);
-                freq = temp_freq[0];
-
-                // Calculate the synth parameters
+                // Set multisynth registers
                 if (pll_assignment[clk.ordinal()] == SI5351_PLLA) {
-                    multisynth_calc(freq, plla_freq, ms_reg);
+                    set_ms_freq(clk, freq, plla_freq);
                 } else {
-                    multisynth_calc(freq, pllb_freq, ms_reg);
+                    set_ms_freq(clk, freq, pllb_freq);
                 }
 
-                // Set multisynth registers
-                set_ms(clk, ms_reg, int_mode, r_div, div_by_4);
-
                 // Reset the PLL
                 //pll_reset(pll_assignment[clk]);
             }
@@ -527,15 +721,16 @@ public class Si5351 {
                             // Not an even divide ratio, no bueno
                             return true;
                         } else {
-                            // Set the freq in memory
-                            clk_freq[clk.ordinal()] = freq;
-
                             // Select the proper R div value
-                            long[] temp_freq = new long[]{freq};
-                            r_div = select_r_div_ms67(temp_freq);
-                            freq = temp_freq[0];
+                            r_div = select_r_div_ms67(freq);
+
+                            if (multisynth67_calc(freq << r_div, pllb_freq, ms_reg) == 0) {
+                                // Division ratio out of range, leave the output as is
+                                return true;
+                            }
 
-                            multisynth67_calc(freq, pllb_freq, ms_reg);
+                            // Set the freq in memory
+                            clk_freq[clk.ordinal()] = freq;
                         }
                     } else {
                         // Not an integer divide ratio, no good
@@ -548,9 +743,8 @@ public class Si5351 {
                     clk_freq[clk.ordinal()] = freq;
 
                     // Select the proper R div value
-                    long[] temp_freq = new long[]{freq};
-                    r_div = select_r_div_ms67(temp_freq);
-                    freq = temp_freq[0];
+                    r_div = select_r_div_ms67(freq);
+                    freq <<= r_div;
 
                     pll_freq = multisynth67_calc(freq, 0, ms_reg);
                     //pllb_freq = pll_freq;
@@ -563,15 +757,16 @@ public class Si5351 {
                             // Not an even divide ratio, no bueno
                             return true;
                         } else {
-                            // Set the freq in memory
-                            clk_freq[clk.ordinal()] = freq;
-
                             // Select the proper R div value
-                            long[] temp_freq = new long[]{freq};
-                            r_div = select_r_div_ms67(temp_freq);
-                            freq = temp_freq[0];
+                            r_div = select_r_div_ms67(freq);
 
-                            multisynth67_calc(freq, pllb_freq, ms_reg);
+                            if (multisynth67_calc(freq << r_div, pllb_freq, ms_reg) == 0) {
+                                // Division ratio out of range, leave the output as is
+                                return true;
+                            }
+
+                            // Set the freq in memory
+                            clk_freq[clk.ordinal()] = freq;
                         }
                     } else {
                         // Not an integer divide ratio, no good
@@ -584,9 +779,8 @@ public class Si5351 {
                     clk_freq[clk.ordinal()] = freq;
 
                     // Select the proper R div value
-                    long[] temp_freq = new long[]{freq};
-                    r_div = select_r_div_ms67(temp_freq);
-                    freq = temp_freq[0];
+                    r_div = select_r_div_ms67(freq);
+                    freq <<= r_div;
 
                     pll_freq = multisynth67_calc(freq, 0, ms_reg);
                     //pllb_freq = pll_freq;
@@ -610,7 +804,9 @@ public class Si5351 {
      * that the PLL is set to the correct frequency before using this method.
      *
      * It is important to note that if you use this method, you will have to
-     * track that all settings are sane yourself.
+     * track that all settings are sane yourself. CLK6 and CLK7 only divide
+     * their PLL by an integer, so there the PLL frequency must be a multiple
+     * of the output frequency.
      *
      * freq - Output frequency in Hz
      * pll_freq - Frequency of the PLL driving the Multisynth in Hz * 100
@@ -618,10 +814,22 @@ public class Si5351 {
      *   (use the si5351_clock enum)
      */
     public void set_freq_manual(long freq, long pll_freq, si5351_clock clk) throws IOException {
-        Si5351RegSet ms_reg = new Si5351RegSet();
-        boolean int_mode = false;
-        boolean div_by_4 = false;
+        op_begin("set_freq_manual");
+        try {
+            begin_transaction();
+            try {
+                set_freq_manual_internal(freq, pll_freq, clk);
+            } catch (IOException | RuntimeException e) {
+                abort_transaction();
+                throw e;
+            }
+            commit_transaction();
+        } finally {
+            op_end();
+        }
+    }
 
+    private void set_freq_manual_internal(long freq, long pll_freq, si5351_clock clk) throws IOException {
         // Lower bounds check
         if (freq > 0 && freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT) {
             freq = SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT;
@@ -632,7 +840,14 @@ public class Si5351 {
             freq = SI5351_CLKOUT_MAX_FREQ * SI5351_FREQ_MULT;
         }
 
-        int r_div;
+        // MS6 and MS7 only support integer division ratios
+        int r_div = 0;
+        if (clk.ordinal() > SI5351_CLK5.ordinal()) {
+            r_div = select_r_div_ms67(freq);
+            if (multisynth67_calc(freq << r_div, pll_freq, ms_scratch) == 0) {
+                throw new IllegalArgumentException("Can't divide PLL frequency " + pll_freq + " to " + freq + " on " + clk);
+            }
+        }
 
         clk_freq[clk.ordinal()] = freq;
 
@@ -641,84 +856,258 @@ public class Si5351 {
         // Enable the output
         output_enable(clk, true);
 
-        // Select the proper R div value
-        long[] temp_freq = new long[] { freq };
-        r_div = select_r_div(temp_freq);
-        freq = temp_freq[0];
-
-        // Calculate the synth parameters
-        multisynth_calc(freq, pll_freq, ms_reg);
-
-        // If freq > 150 MHz, we need to use DIVBY4 and integer mode
-        if (freq >= SI5351_MULTISYNTH_DIVBY4_FREQ * SI5351_FREQ_MULT) {
-            div_by_4 = true;
-            int_mode = true;
-        }
-
         // Set multisynth registers (MS must be set before PLL)
-        set_ms(clk, ms_reg, int_mode, r_div, div_by_4);
+        if (clk.ordinal() <= SI5351_CLK5.ordinal()) {
+            set_ms_freq(clk, freq, pll_freq);
+        } else {
+            set_ms_internal(clk, ms_scratch, false, r_div, false);
+        }
     }
 
     /**
-     * Set the specified PLL to a specific oscillation frequency.
+     * Sets the clock frequency of the specified CLK output by changing only
+     * the fractional feedback of its PLL, keeping the multisynth divider.
+     * Each call is a single burst to the PLL parameters, without multisynth
+     * rewrite and PLL reset, so it suits small steps, e.g. for narrowband
+     * tracking. Other outputs on the same PLL move proportionally.
      *
-     * pll_freq - Desired PLL frequency in Hz * 100
-     * target_pll - Which PLL to set
-     *     (use the si5351_pll enum)
+     * freq - Output frequency in Hz * 100
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     *
+     * Returns bit mask of other outputs moved along (bit N for CLKN), or -1 if
+     * the output is not driven by its multisynth or the required PLL frequency
+     * is out of VCO range.
      */
-    public void set_pll(long pll_freq, si5351_pll target_pll) throws IOException {
-        Si5351RegSet pll_reg = new Si5351RegSet();
+    public int set_freq_fine(long freq, si5351_clock clk) throws IOException {
+        op_begin("set_freq_fine");
+        try {
+            double div = decode_clk_div(clk);
+            if (div <= 0) {
+                return -1;
+            }
+            long pll_freq = Math.round(freq * div);
+            if (pll_freq < SI5351_PLL_VCO_MIN * SI5351_FREQ_MULT || pll_freq > SI5351_PLL_VCO_MAX * SI5351_FREQ_MULT) {
+                return -1;
+            }
 
-        if (target_pll == SI5351_PLLA) {
-            pll_calc(SI5351_PLLA, pll_freq, pll_reg, ref_correction[plla_ref_osc.ordinal()], false);
-        } else {
-            pll_calc(SI5351_PLLB, pll_freq, pll_reg, ref_correction[pllb_ref_osc.ordinal()], false);
-        }
+            // Feedback divider X = pll_freq / ref_freq as P1 = floor(128 * X) - 512
+            // and P2 / P3 = frac(128 * X) with the largest denominator for finest steps
+            si5351_pll pll = pll_assignment[clk.ordinal()];
+            long ref_freq = corrected_ref_freq(pll);
+            long x = pll_freq * 128;
+            int p3 = SI5351_PLL_C_MAX;
+            long p1 = x / ref_freq - 512;
+            long p2 = (x % ref_freq * p3 + ref_freq / 2) / ref_freq;
+            if (p2 == p3) {
+                p1++;
+                p2 = 0;
+            }
+            pll_scratch.p1 = (int) p1;
+            pll_scratch.p2 = (int) p2;
+            pll_scratch.p3 = p3;
+            int bytes = pll_pack(pll_scratch, pll_params);
+
+            long old_pll_freq;
+            if (pll == SI5351_PLLA) {
+                si5351_write_bulk(SI5351_PLLA_PARAMETERS, bytes, pll_params);
+                old_pll_freq = plla_freq;
+                plla_freq = pll_freq;
+            } else {
+                si5351_write_bulk(SI5351_PLLB_PARAMETERS, bytes, pll_params);
+                old_pll_freq = pllb_freq;
+                pllb_freq = pll_freq;
+            }
 
-        // Derive the register values to write
+            int moved = 0;
+            for (int i = 0; i < clk_freq.length; i++) {
+                if (i != clk.ordinal() && pll_assignment[i] == pll && clk_freq[i] != 0) {
+                    if (old_pll_freq != 0) {
+                        clk_freq[i] = Math.round(clk_freq[i] * ((double) pll_freq / old_pll_freq));
+                    }
+                    moved |= 1 << i;
+                }
+            }
+            clk_freq[clk.ordinal()] = freq;
 
-        // Prepare an array for parameters to be written to
-        byte[] params = new byte[20];
-        int i = 0;
-        byte temp;
+            return moved;
+        } finally {
+            op_end();
+        }
+    }
 
-        // Registers 26-27
-        temp = (byte) ((pll_reg.p3 >> 8) & 0xFF);
-        params[i++] = temp;
+    /**
+     * Sets the specified CLK outputs to the same frequency with the given phase
+     * offsets, e.g. for I/Q signals. The outputs are moved to the PLL of the
+     * first one, and the PLL and an even integer multisynth divider are chosen
+     * so the offsets are represented in quarter VCO periods as closely as
+     * possible. All registers are written in a single transaction, followed
+     * by one PLL reset aligning the outputs. Other outputs on the same PLL
+     * are retuned to keep their frequencies.
+     *
+     * Phase offsets require CLK0-CLK5 and a frequency high enough for the
+     * largest offset to fit into the phase offset register, e.g. about 4.7 MHz
+     * for 90 degrees.
+     *
+     * freq - Output frequency in Hz * 100
+     * clks - Clock outputs
+     *   (use the si5351_clock enum)
+     * phases - Phase offset of each output in degrees
+     */
+    public void set_freq_phase(long freq, si5351_clock[] clks, double[] phases) throws IOException {
+        op_begin("set_freq_phase");
+        try {
+            begin_transaction();
+            try {
+                set_freq_phase_internal(freq, clks, phases);
+            } catch (IOException | RuntimeException e) {
+                abort_transaction();
+                throw e;
+            }
+            commit_transaction();
+        } finally {
+            op_end();
+        }
+    }
 
-        temp = (byte) (pll_reg.p3 & 0xFF);
-        params[i++] = temp;
+    /**
+     * Sets the specified CLK outputs to the same frequency in quadrature,
+     * with q_clk lagging i_clk by 90 degrees. See set_freq_phase().
+     *
+     * freq - Output frequency in Hz * 100
+     * i_clk - In-phase clock output
+     * q_clk - Quadrature clock output
+     */
+    public void set_freq_quadrature(long freq, si5351_clock i_clk, si5351_clock q_clk) throws IOException {
+        set_freq_phase(freq, new si5351_clock[] {i_clk, q_clk}, new double[] {0, 90});
+    }
 
-        // Register 28
-        temp = (byte) ((pll_reg.p1 >> 16) & 0x03);
-        params[i++] = temp;
+    private void set_freq_phase_internal(long freq, si5351_clock[] clks, double[] phases) throws IOException {
+        if (clks.length == 0 || clks.length != phases.length) {
+            throw new IllegalArgumentException("Invalid clock outputs and phases");
+        }
+        if (freq <= 0 || freq > SI5351_MULTISYNTH_DIVBY4_FREQ * SI5351_FREQ_MULT) {
+            throw new IllegalArgumentException("Frequency out of range: " + freq);
+        }
+        int mask = 0;
+        for (si5351_clock clk : clks) {
+            if (clk.ordinal() > SI5351_CLK5.ordinal()) {
+                throw new IllegalArgumentException("Phase offset is not supported on " + clk);
+            }
+            mask |= 1 << clk.ordinal();
+        }
+        si5351_pll pll = pll_assignment[clks[0].ordinal()];
+        for (int i = 0; i < 6; i++) {
+            if ((mask & (1 << i)) == 0 && pll_assignment[i] == pll
+                    && clk_freq[i] > SI5351_MULTISYNTH_SHARE_MAX * SI5351_FREQ_MULT) {
+                throw new IllegalStateException("PLL is used by " + SI5351_CLOCKS[i] + " above 100 MHz");
+            }
+        }
 
-        // Registers 29-30
-        temp = (byte) ((pll_reg.p1 >> 8) & 0xFF);
-        params[i++] = temp;
+        // Offsets relative to the least delayed output, in fractions of period
+        double min_phase = Double.MAX_VALUE;
+        for (double phase : phases) {
+            min_phase = Math.min(min_phase, phase);
+        }
+        double[] offsets = new double[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            offsets[i] = ((phases[i] - min_phase) % 360.0) / 360.0;
+        }
 
-        temp = (byte) (pll_reg.p1 & 0xFF);
-        params[i++] = temp;
+        // Phase offset unit is a quarter of VCO period, so the output period is
+        // 4 * div units. Pick the even divider representing the offsets best.
+        long div_min = (SI5351_PLL_VCO_MIN * SI5351_FREQ_MULT + freq - 1) / freq;
+        long div_max = SI5351_PLL_VCO_MAX * SI5351_FREQ_MULT / freq;
+        div_min = Math.max(div_min + (div_min & 1), SI5351_MULTISYNTH_A_MIN);
+        div_max = Math.min(div_max, SI5351_MULTISYNTH_A_MAX);
+        long best_div = 0;
+        double best_error = Double.MAX_VALUE;
+        for (long div = div_min; div <= div_max; div += 2) {
+            double error = 0;
+            for (double offset : offsets) {
+                long phoff = Math.round(offset * 4 * div);
+                if (phoff > SI5351_PHASE_OFFSET_MAX) {
+                    error = Double.MAX_VALUE;
+                    break;
+                }
+                error = Math.max(error, Math.abs(phoff - offset * 4 * div) / (4 * div));
+            }
+            if (error < best_error) {
+                best_error = error;
+                best_div = div;
+            }
+        }
+        if (best_div == 0) {
+            throw new IllegalArgumentException("Phase offsets can't be set at frequency " + freq);
+        }
 
-        // Register 31
-        temp = (byte) ((pll_reg.p3 >> 12) & 0xF0);
-        temp += (byte) ((pll_reg.p2 >> 16) & 0x0F);
-        params[i++] = temp;
+        long pll_freq = freq * best_div;
+        for (si5351_clock clk : clks) {
+            set_ms_source(clk, pll);
+        }
+        set_pll(pll_freq, pll);
+
+        ms_scratch.p1 = (int) (128 * best_div - 512);
+        ms_scratch.p2 = 0;
+        ms_scratch.p3 = 1;
+        for (int i = 0; i < clks.length; i++) {
+            si5351_clock clk = clks[i];
+            set_ms_internal(clk, ms_scratch, true, SI5351_OUTPUT_CLK_DIV_1, false);
+            set_phase(clk, (int) Math.round(offsets[i] * 4 * best_div));
+            if (!clk_first_set[clk.ordinal()]) {
+                output_enable(clk, true);
+                clk_first_set[clk.ordinal()] = true;
+            }
+            clk_freq[clk.ordinal()] = freq;
+        }
 
-        // Registers 32-33
-        temp = (byte) ((pll_reg.p2 >> 8) & 0xFF);
-        params[i++] = temp;
+        // Recalculate params for other synths on same PLL
+        for (int i = 0; i < 6; i++) {
+            if ((mask & (1 << i)) == 0 && clk_freq[i] != 0 && pll_assignment[i] == pll) {
+                set_ms_freq(SI5351_CLOCKS[i], clk_freq[i], pll_freq);
+            }
+        }
 
-        temp = (byte) (pll_reg.p2 & 0xFF);
-        params[i++] = temp;
+        // Reset the PLL to align the outputs
+        pll_reset(pll);
+    }
 
-        // Write the parameters
-        if (target_pll == SI5351_PLLA) {
-            si5351_write_bulk(SI5351_PLLA_PARAMETERS, i, params);
-            plla_freq = pll_freq;
-        } else if (target_pll == SI5351_PLLB) {
-            si5351_write_bulk(SI5351_PLLB_PARAMETERS, i, params);
-            pllb_freq = pll_freq;
+    /**
+     * Set the specified PLL to a specific oscillation frequency.
+     *
+     * pll_freq - Desired PLL frequency in Hz * 100
+     * target_pll - Which PLL to set
+     *     (use the si5351_pll enum)
+     */
+    public void set_pll(long pll_freq, si5351_pll target_pll) throws IOException {
+        op_begin("set_pll");
+        try {
+            si5351_pll_input ref_osc = (target_pll == SI5351_PLLA) ? plla_ref_osc : pllb_ref_osc;
+            int ref_freq = xtal_freq[ref_osc.ordinal()];
+            int correction = ref_correction[ref_osc.ordinal()];
+
+            // Derive the register values to write, unless cached
+            byte[] params = pll_params;
+            int i = SI5351_PARAMETERS_LENGTH;
+            if (param_cache == null
+                    || !param_cache.get(Si5351ParameterCache.PLL, pll_freq, 0, ref_freq, correction, params)) {
+                pll_calc(target_pll, pll_freq, pll_scratch, correction, false);
+                i = pll_pack(pll_scratch, params);
+                if (param_cache != null) {
+                    param_cache.put(Si5351ParameterCache.PLL, pll_freq, 0, ref_freq, correction, params);
+                }
+            }
+
+            // Write the parameters
+            if (target_pll == SI5351_PLLA) {
+                si5351_write_bulk(SI5351_PLLA_PARAMETERS, i, params);
+                plla_freq = pll_freq;
+            } else if (target_pll == SI5351_PLLB) {
+                si5351_write_bulk(SI5351_PLLB_PARAMETERS, i, params);
+                pllb_freq = pll_freq;
+            }
+        } finally {
+            op_end();
         }
     }
 
@@ -732,89 +1121,70 @@ public class Si5351 {
      * div_by_4 - Set Divide By 4 mode. Set to true to enable, false to disable.
      */
     public void set_ms(si5351_clock clk, Si5351RegSet ms_reg, boolean int_mode, int r_div, boolean div_by_4) throws IOException {
-        byte[] params = new byte[20];
-        int i = 0;
-        byte temp;
-        byte reg_val;
+        op_begin("set_ms");
+        try {
+            begin_transaction();
+            try {
+                set_ms_internal(clk, ms_reg, int_mode, r_div, div_by_4);
+            } catch (IOException | RuntimeException e) {
+                abort_transaction();
+                throw e;
+            }
+            commit_transaction();
+        } finally {
+            op_end();
+        }
+    }
 
+    private void set_ms_internal(si5351_clock clk, Si5351RegSet ms_reg, boolean int_mode, int r_div, boolean div_by_4) throws IOException {
         if (clk.ordinal() <= SI5351_CLK5.ordinal()) {
-            // Registers 42-43 for CLK0
-            temp = (byte) ((ms_reg.p3 >> 8) & 0xFF);
-            params[i++] = temp;
-
-            temp = (byte) (ms_reg.p3 & 0xFF);
-            params[i++] = temp;
-
-            // Register 44 for CLK0
-            reg_val = si5351_read((SI5351_CLK0_PARAMETERS + 2) + (clk.ordinal() * 8));
-            reg_val &= ~(0x03);
-            temp = (byte) (reg_val | ((byte) ((ms_reg.p1 >> 16) & 0x03)));
-            params[i++] = temp;
+            // Multisynth parameters have the same layout as PLL parameters
+            pll_pack(ms_reg, ms_params);
+            set_ms_params(clk, ms_params, int_mode, r_div, div_by_4);
+        } else {
+            // MS6 and MS7 only use one register
+            if (clk == SI5351_CLK6) {
+                si5351_write(SI5351_CLK6_PARAMETERS, (byte) ms_reg.p1);
+            } else {
+                si5351_write(SI5351_CLK7_PARAMETERS, (byte) ms_reg.p1);
+            }
+            ms_div(clk, r_div, div_by_4);
+        }
+    }
 
-            // Registers 45-46 for CLK0
-            temp = (byte) ((ms_reg.p1 >> 8) & 0xFF);
-            params[i++] = temp;
+    private void set_ms_params(si5351_clock clk, byte[] params, boolean int_mode, int r_div, boolean div_by_4) throws IOException {
+        int addr = SI5351_CLK0_PARAMETERS + clk.ordinal() * SI5351_PARAMETERS_LENGTH;
+        tone_params[clk.ordinal()] = null;
 
-            temp = (byte) (ms_reg.p1 & 0xFF);
-            params[i++] = temp;
+        // Register 44 for CLK0 also holds R divider and DIVBY4 bits
+        byte reg_val = si5351_read_cached(addr + 2);
+        params[2] = (byte) ((reg_val & ~0x03) | (params[2] & 0x03));
 
-            // Register 47 for CLK0
-            temp = (byte) ((ms_reg.p3 >> 12) & 0xF0);
-            temp += (byte) ((ms_reg.p2 >> 16) & 0x0F);
-            params[i++] = temp;
+        si5351_write_bulk(addr, SI5351_PARAMETERS_LENGTH, params);
+        set_int(clk, int_mode);
+        ms_div(clk, r_div, div_by_4);
+    }
 
-            // Registers 48-49 for CLK0
-            temp = (byte) ((ms_reg.p2 >> 8) & 0xFF);
-            params[i++] = temp;
+    // Set multisynth of CLK0-CLK5 to output the given frequency from the given PLL frequency
+    private void set_ms_freq(si5351_clock clk, long freq, long pll_freq) throws IOException {
+        // Select the proper R div value
+        int r_div = select_r_div(freq);
+        long ms_freq = freq << r_div;
 
-            temp = (byte) (ms_reg.p2 & 0xFF);
-            params[i++] = temp;
-        } else {
-            // MS6 and MS7 only use one register
-            temp = (byte) ms_reg.p1;
+        // If freq > 150 MHz, we need to use DIVBY4 and integer mode
+        boolean div_by_4 = ms_freq >= SI5351_MULTISYNTH_DIVBY4_FREQ * SI5351_FREQ_MULT;
+        boolean int_mode = div_by_4;
+
+        // Calculate the synth parameters, unless cached
+        if (param_cache == null || !param_cache.get(Si5351ParameterCache.MULTISYNTH, freq, pll_freq, 0, 0, ms_params)) {
+            multisynth_calc(ms_freq, pll_freq, ms_scratch);
+            pll_pack(ms_scratch, ms_params);
+            if (param_cache != null) {
+                param_cache.put(Si5351ParameterCache.MULTISYNTH, freq, pll_freq, 0, 0, ms_params);
+            }
         }
 
-        // Write the parameters
-        switch (clk) {
-            case SI5351_CLK0:
-                si5351_write_bulk(SI5351_CLK0_PARAMETERS, i, params);
-                set_int(clk, int_mode);
-                ms_div(clk, r_div, div_by_4);
-                break;
-            case SI5351_CLK1:
-                si5351_write_bulk(SI5351_CLK1_PARAMETERS, i, params);
-                set_int(clk, int_mode);
-                ms_div(clk, r_div, div_by_4);
-                break;
-            case SI5351_CLK2:
-                si5351_write_bulk(SI5351_CLK2_PARAMETERS, i, params);
-                set_int(clk, int_mode);
-                ms_div(clk, r_div, div_by_4);
-                break;
-            case SI5351_CLK3:
-                si5351_write_bulk(SI5351_CLK3_PARAMETERS, i, params);
-                set_int(clk, int_mode);
-                ms_div(clk, r_div, div_by_4);
-                break;
-            case SI5351_CLK4:
-                si5351_write_bulk(SI5351_CLK4_PARAMETERS, i, params);
-                set_int(clk, int_mode);
-                ms_div(clk, r_div, div_by_4);
-                break;
-            case SI5351_CLK5:
-                si5351_write_bulk(SI5351_CLK5_PARAMETERS, i, params);
-                set_int(clk, int_mode);
-                ms_div(clk, r_div, div_by_4);
-                break;
-            case SI5351_CLK6:
-                si5351_write(SI5351_CLK6_PARAMETERS, temp);
-                ms_div(clk, r_div, div_by_4);
-                break;
-            case SI5351_CLK7:
-                si5351_write(SI5351_CLK7_PARAMETERS, temp);
-                ms_div(clk, r_div, div_by_4);
-                break;
-        }
+        set_ms_params(clk, ms_params, int_mode, r_div, div_by_4);
     }
 
     /**
@@ -824,17 +1194,22 @@ public class Si5351 {
      * enable - Set to true to enable, false to disable
      */
     public void output_enable(si5351_clock clk, boolean enable) throws IOException {
-        byte reg_val;
+        op_begin("output_enable");
+        try {
+            byte reg_val;
 
-        reg_val = si5351_read(SI5351_OUTPUT_ENABLE_CTRL);
+            reg_val = si5351_read_cached(SI5351_OUTPUT_ENABLE_CTRL);
 
-        if (enable) {
-            reg_val &= ~(1 << clk.ordinal());
-        } else {
-            reg_val |= (1 << clk.ordinal());
-        }
+            if (enable) {
+                reg_val &= ~(1 << clk.ordinal());
+            } else {
+                reg_val |= (1 << clk.ordinal());
+            }
 
-        si5351_write(SI5351_OUTPUT_ENABLE_CTRL, reg_val);
+            si5351_write(SI5351_OUTPUT_ENABLE_CTRL, reg_val);
+        } finally {
+            op_end();
+        }
     }
 
     /**
@@ -846,29 +1221,34 @@ public class Si5351 {
      *   (use the si5351_drive enum)
      */
     public void drive_strength(si5351_clock clk, si5351_drive drive) throws IOException {
-        byte mask = 0x03;
-
-        byte reg_val = si5351_read(SI5351_CLK0_CTRL + clk.ordinal());
-        reg_val &= ~(mask);
+        op_begin("drive_strength");
+        try {
+            byte mask = 0x03;
+
+            byte reg_val = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+            reg_val &= ~(mask);
+
+            switch (drive) {
+                case SI5351_DRIVE_2MA:
+                    reg_val |= 0x00;
+                    break;
+                case SI5351_DRIVE_4MA:
+                    reg_val |= 0x01;
+                    break;
+                case SI5351_DRIVE_6MA:
+                    reg_val |= 0x02;
+                    break;
+                case SI5351_DRIVE_8MA:
+                    reg_val |= 0x03;
+                    break;
+                default:
+                    break;
+            }
 
-        switch (drive) {
-            case SI5351_DRIVE_2MA:
-                reg_val |= 0x00;
-                break;
-            case SI5351_DRIVE_4MA:
-                reg_val |= 0x01;
-                break;
-            case SI5351_DRIVE_6MA:
-                reg_val |= 0x02;
-                break;
-            case SI5351_DRIVE_8MA:
-                reg_val |= 0x03;
-                break;
-            default:
-                break;
+            si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+        } finally {
+            op_end();
         }
-
-        si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
     }
 
     /**
@@ -880,8 +1260,58 @@ public class Si5351 {
      * the Si5351 datasheet.
      */
     public void update_status() throws IOException {
-        update_sys_status(dev_status);
-        update_int_status(dev_int_status);
+        op_begin("update_status");
+        try {
+            // Read both status registers in a single burst
+            si5351_read_bulk(SI5351_DEVICE_STATUS, 2, burst_buf);
+            update_sys_status(dev_status, burst_buf[0]);
+            update_int_status(dev_int_status, burst_buf[1]);
+            // Keep the flag bits only, as SI5351_STATUS_* constants
+            status_reg = burst_buf[0] & 0xF0;
+            int_status_reg = burst_buf[1] & 0xF0;
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Set the interrupt mask register. Status flags with mask bits set
+     * do not assert the INTR pin.
+     *
+     * mask - Combination of SI5351_STATUS_SYS_INIT, SI5351_STATUS_LOL_B,
+     *   SI5351_STATUS_LOL_A and SI5351_STATUS_LOS bits to mask
+     */
+    public void set_interrupt_mask(int mask) throws IOException {
+        op_begin("set_interrupt_mask");
+        try {
+            si5351_write(SI5351_INTERRUPT_MASK, (byte) mask);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Clear sticky interrupt status flags.
+     *
+     * flags - Combination of SI5351_STATUS_SYS_INIT, SI5351_STATUS_LOL_B,
+     *   SI5351_STATUS_LOL_A and SI5351_STATUS_LOS bits to clear
+     */
+    public void clear_int_status(int flags) throws IOException {
+        op_begin("clear_int_status");
+        try {
+            // Sticky flags are cleared by writing zeros, ones leave them intact
+            si5351_write(SI5351_INTERRUPT_STATUS, (byte) (~flags & 0xF0));
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Returns the number of register updates that changed PLL
+     * parameters or reset the PLLs, to detect possible lock transients.
+     */
+    public int get_pll_change_count() {
+        return pll_change_count;
     }
 
     /**
@@ -909,11 +1339,20 @@ public class Si5351 {
      *     (use the si5351_pll_input enum)
      */
     public void set_correction(int corr, si5351_pll_input ref_osc) throws IOException {
-        ref_correction[ref_osc.ordinal()] = corr;
-
-        // Recalculate and set PLL freqs based on correction value
-        set_pll(plla_freq, SI5351_PLLA);
-        set_pll(pllb_freq, SI5351_PLLB);
+        op_begin("set_correction");
+        try {
+            ref_correction[ref_osc.ordinal()] = corr;
+            reset_image = null;
+            param_cache_clear();
+
+            // Recalculate and set PLL freqs based on correction value
+            run_transaction(() -> {
+                set_pll(plla_freq, SI5351_PLLA);
+                set_pll(pllb_freq, SI5351_PLLB);
+            });
+        } finally {
+            op_end();
+        }
     }
 
     /**
@@ -927,10 +1366,15 @@ public class Si5351 {
      *   (in units of VCO/4 period)
      */
     public void set_phase(si5351_clock clk, int phase) throws IOException {
-        // Mask off the upper bit since it is reserved
-        phase = phase & 0b01111111;
-
-        si5351_write(SI5351_CLK0_PHASE_OFFSET + clk.ordinal(), (byte) phase);
+        op_begin("set_phase");
+        try {
+            // Mask off the upper bit since it is reserved
+            phase = phase & 0b01111111;
+
+            si5351_write(SI5351_CLK0_PHASE_OFFSET + clk.ordinal(), (byte) phase);
+        } finally {
+            op_end();
+        }
     }
 
     /**
@@ -945,284 +1389,1744 @@ public class Si5351 {
         return ref_correction[ref_osc.ordinal()];
     }
 
-    /**
-     * Apply a reset to the indicated PLL.
-     *
-     * target_pll - Which PLL to reset
-     *     (use the si5351_pll enum)
-     */
-    public void pll_reset(si5351_pll target_pll) throws IOException {
-        if (target_pll == SI5351_PLLA) {
-            si5351_write(SI5351_PLL_RESET, (byte) SI5351_PLL_RESET_A);
-        } else if (target_pll == SI5351_PLLB) {
-            si5351_write(SI5351_PLL_RESET, (byte) SI5351_PLL_RESET_B);
+    /**
+     * Apply a reset to the indicated PLL.
+     *
+     * target_pll - Which PLL to reset
+     *     (use the si5351_pll enum)
+     */
+    public void pll_reset(si5351_pll target_pll) throws IOException {
+        op_begin("pll_reset");
+        try {
+            if (target_pll == SI5351_PLLA) {
+                si5351_write(SI5351_PLL_RESET, (byte) SI5351_PLL_RESET_A);
+            } else if (target_pll == SI5351_PLLB) {
+                si5351_write(SI5351_PLL_RESET, (byte) SI5351_PLL_RESET_B);
+            }
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Set the desired PLL source for a multisynth.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * pll - Which PLL to use as the source
+     *     (use the si5351_pll enum)
+     */
+    public void set_ms_source(si5351_clock clk, si5351_pll pll) throws IOException {
+        op_begin("set_ms_source");
+        try {
+            byte reg_val = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+
+            if (pll == si5351_pll.SI5351_PLLA) {
+                reg_val &= ~(SI5351_CLK_PLL_SELECT);
+            } else if (pll == si5351_pll.SI5351_PLLB) {
+                reg_val |= SI5351_CLK_PLL_SELECT;
+            }
+
+            si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+
+            pll_assignment[clk.ordinal()] = pll;
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Set the indicated multisynth into integer mode.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * enable - Set to true to enable, false to disable
+     */
+    public void set_int(si5351_clock clk, boolean enable) throws IOException {
+        op_begin("set_int");
+        try {
+            byte reg_val = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+
+            if (enable) {
+                reg_val |= (SI5351_CLK_INTEGER_MODE);
+            } else {
+                reg_val &= ~(SI5351_CLK_INTEGER_MODE);
+            }
+
+            si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Enable or disable power to a clock output (a power
+     * saving feature).
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * pwr - Set to true to enable, false to disable
+     */
+    public void set_clock_pwr(si5351_clock clk, boolean pwr) throws IOException {
+        op_begin("set_clock_pwr");
+        try {
+            byte reg_val = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+
+            if (pwr) {
+                reg_val &= 0b01111111;
+            } else {
+                reg_val |= 0b10000000;
+            }
+
+            si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Enable to invert the clock output waveform.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * inv - Set to true to enable, false to disable
+     */
+    public void set_clock_invert(si5351_clock clk, boolean inv) throws IOException {
+        op_begin("set_clock_invert");
+        try {
+            byte reg_val = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+
+            if (inv) {
+                reg_val |= (SI5351_CLK_INVERT);
+            } else {
+                reg_val &= ~(SI5351_CLK_INVERT);
+            }
+
+            si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Set the clock source for a multisynth (based on the options
+     * presented for Registers 16-23 in the Silicon Labs AN619 document).
+     * Choices are XTAL, CLKIN, MS0, or the multisynth associated with
+     * the clock output.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * src - Which clock source to use for the multisynth
+     *   (use the si5351_clock_source enum)
+     */
+    public void set_clock_source(si5351_clock clk, si5351_clock_source src) throws IOException {
+        op_begin("set_clock_source");
+        try {
+            byte reg_val = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+
+            // Clear the bits first
+            reg_val &= ~(SI5351_CLK_INPUT_MASK);
+
+            switch (src) {
+                case SI5351_CLK_SRC_XTAL:
+                    reg_val |= (SI5351_CLK_INPUT_XTAL);
+                    break;
+                case SI5351_CLK_SRC_CLKIN:
+                    reg_val |= (SI5351_CLK_INPUT_CLKIN);
+                    break;
+                case SI5351_CLK_SRC_MS0:
+                    if (clk == SI5351_CLK0) {
+                        return;
+                    }
+                    reg_val |= (SI5351_CLK_INPUT_MULTISYNTH_0_4);
+                    break;
+                case SI5351_CLK_SRC_MS:
+                    reg_val |= (SI5351_CLK_INPUT_MULTISYNTH_N);
+                    break;
+                default:
+                    return;
+            }
+
+            si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Set the state of the clock output when it is disabled. Per page 27
+     * of AN619 (Registers 24 and 25), there are four possible values: low,
+     * high, high impedance, and never disabled.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * dis_state - Desired state of the output upon disable
+     *   (use the si5351_clock_disable enum)
+     */
+    public void set_clock_disable(si5351_clock clk, si5351_clock_disable dis_state) throws IOException {
+        op_begin("set_clock_disable");
+        try {
+            byte reg_val, reg;
+
+            if (clk.ordinal() >= SI5351_CLK0.ordinal() && clk.ordinal() <= SI5351_CLK3.ordinal()) {
+                reg = SI5351_CLK3_0_DISABLE_STATE;
+            } else if (clk.ordinal() >= SI5351_CLK4.ordinal() && clk.ordinal() <= SI5351_CLK7.ordinal()) {
+                reg = SI5351_CLK7_4_DISABLE_STATE;
+            } else return;
+
+            reg_val = si5351_read_cached(reg);
+
+            if (clk.ordinal() >= SI5351_CLK0.ordinal() && clk.ordinal() <= SI5351_CLK3.ordinal()) {
+                reg_val &= ~(0b11 << (clk.ordinal() * 2));
+                reg_val |= dis_state.ordinal() << (clk.ordinal() * 2);
+            } else if (clk.ordinal() >= SI5351_CLK4.ordinal() && clk.ordinal() <= SI5351_CLK7.ordinal()) {
+                reg_val &= ~(0b11 << ((clk.ordinal() - 4) * 2));
+                reg_val |= dis_state.ordinal() << ((clk.ordinal() - 4) * 2);
+            }
+
+            si5351_write(reg, reg_val);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Use this function to enable or disable the clock fanout options
+     * for individual clock outputs. If you intend to output the XO or
+     * CLKIN on the clock outputs, enable this first.
+     *
+     * By default, only the Multisynth fanout is enabled at startup.
+     *
+     * fanout - Desired clock fanout
+     *   (use the si5351_clock_fanout enum)
+     * enable - Set to true to enable, false to disable
+     */
+    public void set_clock_fanout(si5351_clock_fanout fanout, boolean enable) throws IOException {
+        op_begin("set_clock_fanout");
+        try {
+            byte reg_val = si5351_read_cached(SI5351_FANOUT_ENABLE);
+
+            switch (fanout) {
+                case SI5351_FANOUT_CLKIN:
+                    if (enable) {
+                        reg_val |= SI5351_CLKIN_ENABLE;
+                    } else {
+                        reg_val &= ~(SI5351_CLKIN_ENABLE);
+                    }
+                    break;
+                case SI5351_FANOUT_XO:
+                    if (enable) {
+                        reg_val |= SI5351_XTAL_ENABLE;
+                    } else {
+                        reg_val &= ~(SI5351_XTAL_ENABLE);
+                    }
+                    break;
+                case SI5351_FANOUT_MS:
+                    if (enable) {
+                        reg_val |= SI5351_MULTISYNTH_ENABLE;
+                    } else {
+                        reg_val &= ~(SI5351_MULTISYNTH_ENABLE);
+                    }
+                    break;
+            }
+
+            si5351_write(SI5351_FANOUT_ENABLE, reg_val);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Set the desired reference oscillator source for the given PLL.
+     *
+     * pll - Which PLL to use as the source
+     *     (use the si5351_pll enum)
+     * input - Which reference oscillator to use as PLL input
+     *     (use the si5351_pll_input enum)
+     */
+    public void set_pll_input(si5351_pll pll, si5351_pll_input input) throws IOException {
+        op_begin("set_pll_input");
+        try {
+            byte reg_val = si5351_read_cached(SI5351_PLL_INPUT_SOURCE);
+
+            // Clear the bits first
+            //reg_val &= ~(SI5351_CLKIN_DIV_MASK);
+
+            switch (pll) {
+                case SI5351_PLLA:
+                    if (input == SI5351_PLL_INPUT_CLKIN) {
+                        reg_val |= SI5351_PLLA_SOURCE;
+                        reg_val |= clkin_div;
+                        plla_ref_osc = SI5351_PLL_INPUT_CLKIN;
+                    } else {
+                        reg_val &= ~(SI5351_PLLA_SOURCE);
+                        plla_ref_osc = SI5351_PLL_INPUT_XO;
+                    }
+                    break;
+                case SI5351_PLLB:
+                    if (input == SI5351_PLL_INPUT_CLKIN) {
+                        reg_val |= SI5351_PLLB_SOURCE;
+                        reg_val |= clkin_div;
+                        pllb_ref_osc = SI5351_PLL_INPUT_CLKIN;
+                    } else {
+                        reg_val &= ~(SI5351_PLLB_SOURCE);
+                        pllb_ref_osc = SI5351_PLL_INPUT_XO;
+                    }
+                    break;
+                default:
+                    return;
+            }
+
+            reset_image = null;
+            param_cache_clear();
+
+            final byte input_source = reg_val;
+            run_transaction(() -> {
+                si5351_write(SI5351_PLL_INPUT_SOURCE, input_source);
+
+                set_pll(plla_freq, SI5351_PLLA);
+                set_pll(pllb_freq, SI5351_PLLB);
+            });
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Set the parameters for the VCXO on the Si5351B.
+     *
+     * pll_freq - Desired PLL base frequency in Hz * 100
+     * ppm - VCXO pL limit in ppm
+     */
+    public void set_vcxo(long pll_freq, int ppm) throws IOException {
+        op_begin("set_vcxo");
+        try {
+            Si5351RegSet pll_reg = new Si5351RegSet();
+            long vcxo_param;
+
+            // Bounds check
+            if (ppm < SI5351_VCXO_PL_MIN) {
+                ppm = SI5351_VCXO_PL_MIN;
+            }
+
+            if (ppm > SI5351_VCXO_PL_MAX) {
+                ppm = SI5351_VCXO_PL_MAX;
+            }
+
+            // Set PLLB params
+            vcxo_param = pll_calc(SI5351_PLLB, pll_freq, pll_reg, ref_correction[pllb_ref_osc.ordinal()], true);
+
+            // Derive the register values to write
+            byte[] params = new byte[SI5351_PARAMETERS_LENGTH];
+            int i = pll_pack(pll_reg, params);
+
+            // Write the parameters
+            si5351_write_bulk(SI5351_PLLB_PARAMETERS, i, params);
+
+            // Write the VCXO parameters
+            vcxo_param = ((vcxo_param * ppm * SI5351_VCXO_MARGIN) / 100L) / 1000000L;
+
+            byte temp = (byte) (vcxo_param & 0xFF);
+            si5351_write(SI5351_VXCO_PARAMETERS_LOW, temp);
+
+            temp = (byte) ((vcxo_param >> 8) & 0xFF);
+            si5351_write(SI5351_VXCO_PARAMETERS_MID, temp);
+
+            temp = (byte) ((vcxo_param >> 16) & 0x3F);
+            si5351_write(SI5351_VXCO_PARAMETERS_HIGH, temp);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Select fast init mode. In this mode reset() writes a precomputed
+     * power-on register image using a few burst transfers instead of
+     * programming the registers one by one.
+     *
+     * enable - Set to true to enable fast init mode, false to disable
+     */
+    public void set_fast_init(boolean enable) {
+        fast_init = enable;
+    }
+
+    public boolean get_fast_init() {
+        return fast_init;
+    }
+
+    /**
+     * Set the reference frequency value for the desired reference oscillator.
+     *
+     * ref_freq - Reference oscillator frequency in Hz
+     * ref_osc - Which reference oscillator frequency to set
+     *    (use the si5351_pll_input enum)
+     */
+    public void set_ref_freq(int ref_freq, si5351_pll_input ref_osc) {
+        reset_image = null;
+        param_cache_clear();
+
+        if (ref_freq <= 30_000_000) {
+            xtal_freq[ref_osc.ordinal()] = ref_freq;
+            if (ref_osc == SI5351_PLL_INPUT_CLKIN) {
+                clkin_div = SI5351_CLKIN_DIV_1;
+            }
+        } else if (ref_freq <= 60_000_000) {
+            xtal_freq[ref_osc.ordinal()] = ref_freq / 2;
+            if (ref_osc == SI5351_PLL_INPUT_CLKIN) {
+                clkin_div = SI5351_CLKIN_DIV_2;
+            }
+        } else if (ref_freq <= 100_000_000) {
+            xtal_freq[ref_osc.ordinal()] = ref_freq / 4;
+            if (ref_osc == SI5351_PLL_INPUT_CLKIN) {
+                clkin_div = SI5351_CLKIN_DIV_4;
+            }
+        }
+    }
+
+    /**
+     * Read the whole device configuration space into a register image.
+     * Reserved register holes are skipped, short ones are bridged so the
+     * registers are read using a few burst transfers.
+     */
+    public Si5351RegisterImage read_registers() throws IOException {
+        op_begin("read_registers");
+        try {
+            byte[] values = new byte[SI5351_REGISTER_MAP_SIZE];
+            registers_load(values);
+
+            Si5351RegisterImage.Builder builder = Si5351RegisterImage.builder();
+            for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+                if (is_implemented_reg(addr)) {
+                    builder.set(addr, values[addr]);
+                }
+            }
+            shadow_update(0, SI5351_REGISTER_MAP_SIZE, values);
+
+            return builder.build();
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Write the register image to the device. Only registers that differ
+     * from the current device state are written, merged into bursts.
+     * If any PLL or multisynth parameters change, outputs are disabled
+     * while the new parameters are written and both PLLs are reset
+     * afterwards. Read-only and self-clearing registers in the image
+     * are ignored.
+     *
+     * image - Register image to write
+     */
+    public void write_registers(Si5351RegisterImage image) throws IOException {
+        op_begin("write_registers");
+        try {
+            registers_apply(image, false);
+            state_decode();
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Apply a complete register map, e.g. loaded by Si5351RegisterMapLoader,
+     * using the programming procedure from the datasheet: disable the outputs,
+     * power down the output drivers, write the new configuration, reset
+     * the PLLs and enable the outputs. Registers are written in bursts.
+     *
+     * Library state (PLL and clock frequencies, PLL assignments) is
+     * derived from the resulting register values, so set_freq() and other
+     * functions can be used afterwards.
+     *
+     * image - Register map to apply
+     */
+    public void apply_register_map(Si5351RegisterImage image) throws IOException {
+        op_begin("apply_register_map");
+        try {
+            registers_apply(image, true);
+            state_decode();
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Returns the register image of the current device configuration,
+     * taken from the register shadow without any bus traffic, e.g. to save
+     * it and bring the device back to the same state by restore() later.
+     * Registers not written because of an I/O error are included with
+     * their intended values, registers never accessed are left out.
+     */
+    public Si5351RegisterImage get_register_image() {
+        if (txn_depth > 0) {
+            throw new IllegalStateException("Can't get register image within a transaction");
+        }
+        Si5351RegisterImage.Builder builder = Si5351RegisterImage.builder();
+        for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+            if ((reg_shadow_valid[addr] || reg_shadow_pending[addr]) && is_writable_reg(addr)) {
+                builder.set(addr, reg_shadow[addr]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Bring the device back to the configuration last set by the library,
+     * e.g. after a transient bus failure. The device registers are read
+     * in a few bursts and compared with the intended configuration,
+     * including writes that failed, and only the registers that diverged
+     * are rewritten. Outputs keep running unless PLL or multisynth
+     * parameters differ, in which case they are disabled while
+     * the parameters are written and the PLLs are reset afterwards.
+     *
+     * A PLL reset not issued because of a failed write is issued as well.
+     *
+     * Returns the number of registers that diverged, 0 if the device
+     * kept its configuration.
+     */
+    public int resync() throws IOException {
+        op_begin("resync");
+        try {
+            Si5351RegisterImage image = get_register_image();
+            if (image.size() == 0) {
+                throw new IllegalStateException("Device configuration is not known");
+            }
+            return registers_sync(image);
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Use instead of init() to restore the device configuration saved
+     * by get_register_image(), skipping all parameter calculations.
+     * The device registers are read in a few bursts, and only registers
+     * that differ from the image are written, so a device that kept its
+     * configuration is not touched at all. Otherwise, outputs are disabled
+     * while the new PLL and multisynth parameters are written and both PLLs
+     * are reset afterwards.
+     *
+     * image - Register image saved by get_register_image()
+     * xo_freq - Crystal/reference oscillator frequency in 1 Hz increments.
+     * Defaults to SI5351_XTAL_FREQ if a 0 is used here.
+     * corr - Frequency correction constant in parts-per-billion
+     */
+    public void restore(Si5351RegisterImage image, int xo_freq, int corr) throws IOException {
+        op_begin("restore");
+        try {
+            // Wait for SYS_INIT flag to be clear, indicating that device is ready
+            wait_sys_init();
+
+            set_ref_freq(xo_freq != 0 ? xo_freq : SI5351_XTAL_FREQ, SI5351_PLL_INPUT_XO);
+            ref_correction[SI5351_PLL_INPUT_XO.ordinal()] = corr;
+
+            registers_sync(image);
+            state_decode();
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Apply a frequency plan created by Si5351FrequencyPlanner in a single
+     * transaction: PLL assignments, PLL and multisynth parameters of all
+     * outputs are written in bursts, followed by a single reset of the
+     * retuned PLLs. Outputs without target frequency are disabled.
+     *
+     * plan - Frequency plan to apply
+     */
+    public void apply_plan(Si5351FrequencyPlan plan) throws IOException {
+        op_begin("apply_plan");
+        try {
+            begin_transaction();
+            try {
+                apply_plan_internal(plan);
+            } catch (IOException | RuntimeException e) {
+                abort_transaction();
+                throw e;
+            }
+            commit_transaction();
+        } finally {
+            op_end();
+        }
+    }
+
+    private void apply_plan_internal(Si5351FrequencyPlan plan) throws IOException {
+        for (si5351_clock clk : SI5351_CLOCKS) {
+            if (plan.isEnabled(clk)) {
+                set_ms_source(clk, plan.getPllAssignment(clk));
+            } else {
+                output_enable(clk, false);
+                clk_freq[clk.ordinal()] = 0;
+                clk_first_set[clk.ordinal()] = false;
+            }
+        }
+
+        for (si5351_pll pll : si5351_pll.values()) {
+            if (plan.getPllFreq(pll) != 0) {
+                set_pll(plan.getPllFreq(pll), pll);
+            }
+        }
+
+        for (si5351_clock clk : SI5351_CLOCKS) {
+            if (plan.isEnabled(clk)) {
+                plan.getMsParams(clk, ms_scratch);
+                set_ms(clk, ms_scratch, plan.isIntegerMode(clk), plan.getRDiv(clk), plan.isDivBy4(clk));
+                clk_freq[clk.ordinal()] = plan.getTargetFreq(clk);
+                output_enable(clk, true);
+                clk_first_set[clk.ordinal()] = true;
+            }
+        }
+
+        for (si5351_pll pll : si5351_pll.values()) {
+            if (plan.getPllFreq(pll) != 0) {
+                pll_reset(pll);
+            }
+        }
+    }
+
+    /**
+     * Prepare a frequency sweep of the specified CLK output from start to stop
+     * frequency with the given frequency step. Register values of every step
+     * are calculated up front for the PLL frequency currently driving the
+     * output, so the PLL must not be retuned until the sweep is finished.
+     * Sweeps are limited to CLK0-CLK5 and frequencies up to 100 MHz,
+     * which don't require PLL changes.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * start_freq - First step frequency in Hz * 100
+     * stop_freq - Last step frequency limit in Hz * 100, may be below start_freq
+     * step_freq - Frequency step in Hz * 100
+     * dwell_us - Time to stay at each step in microseconds
+     */
+    public Si5351FrequencySweep prepare_sweep(si5351_clock clk, long start_freq, long stop_freq,
+                                              long step_freq, long dwell_us) throws IOException {
+        if (step_freq <= 0) {
+            throw new IllegalArgumentException("Invalid sweep step: " + step_freq);
+        }
+        long steps = Math.abs(stop_freq - start_freq) / step_freq + 1;
+        if (steps > SI5351_SWEEP_MAX_STEPS) {
+            throw new IllegalArgumentException("Too many sweep steps: " + steps);
+        }
+        long[] freqs = new long[(int) steps];
+        long step = (stop_freq >= start_freq) ? step_freq : -step_freq;
+        for (int i = 0; i < freqs.length; i++) {
+            freqs[i] = start_freq + i * step;
+        }
+        return sweep_prepare(clk, freqs, dwell_us);
+    }
+
+    /**
+     * Prepare a frequency sweep of the specified CLK output from start to stop
+     * frequency in the given number of equal steps. See prepare_sweep().
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * start_freq - First step frequency in Hz * 100
+     * stop_freq - Last step frequency in Hz * 100, may be below start_freq
+     * steps - Number of steps, including start and stop frequencies
+     * dwell_us - Time to stay at each step in microseconds
+     */
+    public Si5351FrequencySweep prepare_sweep_steps(si5351_clock clk, long start_freq, long stop_freq,
+                                                    int steps, long dwell_us) throws IOException {
+        if (steps < 1 || steps > SI5351_SWEEP_MAX_STEPS || (steps == 1 && start_freq != stop_freq)) {
+            throw new IllegalArgumentException("Invalid number of sweep steps: " + steps);
+        }
+        long[] freqs = new long[steps];
+        for (int i = 0; i < steps; i++) {
+            freqs[i] = (steps == 1) ? start_freq : start_freq + (stop_freq - start_freq) * i / (steps - 1);
+        }
+        return sweep_prepare(clk, freqs, dwell_us);
+    }
+
+    /**
+     * Set up the specified CLK output for fast switching between a set of tones,
+     * e.g. for FSK beacon modes. PLL and multisynth integer part are chosen so
+     * that all tones only differ in the multisynth P2 parameter, then the
+     * output is set to the first tone. Other outputs on the same PLL are
+     * retuned to keep their frequencies.
+     *
+     * Tones are limited to CLK0-CLK5 and frequencies up to 100 MHz. Tone spread
+     * is limited to about 1/(256 * MS divider) of the base frequency, where
+     * the MS divider is kept between 8 and 16 above 64 kHz, i.e. a few kHz at HF.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * base_freq - Base frequency in Hz * 100
+     * offsets - Tone offsets from the base frequency in Hz * 100
+     */
+    public void set_tones(si5351_clock clk, long base_freq, long[] offsets) throws IOException {
+        op_begin("set_tones");
+        try {
+            begin_transaction();
+            try {
+                set_tones_internal(clk, base_freq, offsets);
+            } catch (IOException | RuntimeException e) {
+                abort_transaction();
+                throw e;
+            }
+            commit_transaction();
+        } finally {
+            op_end();
+        }
+    }
+
+    private void set_tones_internal(si5351_clock clk, long base_freq, long[] offsets) throws IOException {
+        if (clk.ordinal() > SI5351_CLK5.ordinal()) {
+            throw new IllegalArgumentException("Tones are not supported on " + clk);
+        }
+        if (offsets.length == 0 || offsets.length > SI5351_TONES_MAX) {
+            throw new IllegalArgumentException("Invalid number of tones: " + offsets.length);
+        }
+        long min_freq = Long.MAX_VALUE;
+        long max_freq = Long.MIN_VALUE;
+        long[] freqs = new long[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            freqs[i] = base_freq + offsets[i];
+            min_freq = Math.min(min_freq, freqs[i]);
+            max_freq = Math.max(max_freq, freqs[i]);
+        }
+        if (min_freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT
+                || max_freq > SI5351_MULTISYNTH_SHARE_MAX * SI5351_FREQ_MULT) {
+            throw new IllegalArgumentException("Tone frequency out of range");
+        }
+        si5351_pll pll = pll_assignment[clk.ordinal()];
+        for (int i = 0; i < 6; i++) {
+            if (i != clk.ordinal() && pll_assignment[i] == pll
+                    && clk_freq[i] > SI5351_MULTISYNTH_SHARE_MAX * SI5351_FREQ_MULT) {
+                throw new IllegalStateException("PLL is used by " + SI5351_CLOCKS[i] + " above 100 MHz");
+            }
+        }
+
+        // Run the multisynth as fast as the fractional divider allows, since the
+        // tone spread range is proportional to the multisynth frequency
+        long center_freq = (min_freq + max_freq) / 2;
+        int r_div = select_r_div(center_freq);
+        while (r_div < SI5351_OUTPUT_CLK_DIV_128 && tones_ms_step(center_freq << (r_div + 1)) >= 8 * 128) {
+            r_div++;
+        }
+
+        // Center the tones in the middle of a 1/128 step of the multisynth divider,
+        // the largest one keeping the PLL within VCO range, so P1 is the same for all
+        long ms_freq = center_freq << r_div;
+        long k = tones_ms_step(ms_freq);
+        if (k < 8 * 128 || k >= SI5351_MULTISYNTH_A_MAX * 128) {
+            throw new IllegalArgumentException("Tone frequency out of range");
+        }
+        long pll_freq = ms_freq * (2 * k + 1) / 256;
+
+        // Tone parameters are derived from the PLL frequency the device actually produces
+        si5351_pll_input ref_osc = (pll == SI5351_PLLA) ? plla_ref_osc : pllb_ref_osc;
+        long pll_actual = pll_calc(pll, pll_freq, pll_scratch, ref_correction[ref_osc.ordinal()], false);
+
+        // P1 = floor(128 * d) - 512, P2 / P3 = frac(128 * d) for MS divider d = pll_actual / ms_freq
+        int p1 = (int) (k - 512);
+        int p3 = SI5351_MULTISYNTH_C_MAX;
+        byte[] params = new byte[freqs.length * SI5351_TONE_PARAMS_LENGTH];
+        int p2_first = 0;
+        for (int i = 0; i < freqs.length; i++) {
+            long tone_ms_freq = freqs[i] << r_div;
+            long ratio = pll_actual * 128;
+            long p2 = (ratio % tone_ms_freq * p3 + tone_ms_freq / 2) / tone_ms_freq;
+            if (ratio / tone_ms_freq != k || p2 >= p3) {
+                throw new IllegalArgumentException("Tones are spread too wide");
+            }
+            int j = i * SI5351_TONE_PARAMS_LENGTH;
+            params[j] = (byte) (((p3 >> 12) & 0xF0) | ((p2 >> 16) & 0x0F));
+            params[j + 1] = (byte) ((p2 >> 8) & 0xFF);
+            params[j + 2] = (byte) (p2 & 0xFF);
+            if (i == 0) {
+                p2_first = (int) p2;
+            }
+        }
+
+        // Retune the PLL and other outputs on it
+        set_pll(pll_freq, pll);
+        for (int i = 0; i < 6; i++) {
+            if (i != clk.ordinal() && clk_freq[i] != 0 && pll_assignment[i] == pll) {
+                set_ms_freq(SI5351_CLOCKS[i], clk_freq[i], pll_freq);
+            }
+        }
+
+        // Set the first tone
+        if (!clk_first_set[clk.ordinal()]) {
+            output_enable(clk, true);
+            clk_first_set[clk.ordinal()] = true;
+        }
+        ms_scratch.p1 = p1;
+        ms_scratch.p2 = p2_first;
+        ms_scratch.p3 = p3;
+        set_ms_internal(clk, ms_scratch, false, r_div, false);
+        clk_freq[clk.ordinal()] = freqs[0];
+        pll_reset(pll);
+
+        tone_params[clk.ordinal()] = params;
+        tone_freqs[clk.ordinal()] = freqs;
+        tone_pll_freq[clk.ordinal()] = pll_freq;
+    }
+
+    // Largest 1/128 step of the multisynth divider fully within VCO range for the given multisynth frequency
+    private static long tones_ms_step(long ms_freq) {
+        return SI5351_PLL_VCO_MAX * SI5351_FREQ_MULT * 128 / ms_freq - 1;
+    }
+
+    /**
+     * Switch the specified CLK output to one of the tones set by set_tones().
+     * Only the changed multisynth P2 registers are written in a single burst,
+     * without register reads or PLL reset.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     * tone - Tone index in the offsets passed to set_tones()
+     */
+    public void select_tone(si5351_clock clk, int tone) throws IOException {
+        op_begin("select_tone");
+        try {
+            byte[] params = tone_params[clk.ordinal()];
+            if (params == null) {
+                throw new IllegalStateException("No tones set for " + clk);
+            }
+            if (tone < 0 || tone >= tone_freqs[clk.ordinal()].length) {
+                throw new IllegalArgumentException("Invalid tone index: " + tone);
+            }
+            if (sweep_pll_freq(clk) != tone_pll_freq[clk.ordinal()]) {
+                throw new IllegalStateException("PLL retuned since tones were set for " + clk);
+            }
+            System.arraycopy(params, tone * SI5351_TONE_PARAMS_LENGTH, tone_buf, 0, SI5351_TONE_PARAMS_LENGTH);
+            si5351_write_bulk(SI5351_CLK0_PARAMETERS + clk.ordinal() * SI5351_PARAMETERS_LENGTH
+                    + SI5351_TONE_PARAMS_OFFSET, SI5351_TONE_PARAMS_LENGTH, tone_buf);
+            clk_freq[clk.ordinal()] = tone_freqs[clk.ordinal()][tone];
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Select how fractional PLL and multisynth dividers are calculated. By default,
+     * the fraction has a fixed denominator of RFRAC_DENOM and a truncated numerator.
+     * The best fraction mode finds the closest fraction with a denominator up to
+     * 1048575, hitting exact and short-denominator ratios where they exist.
+     *
+     * enable - Set to true to use the best fraction, false to use fixed denominator
+     */
+    public void set_best_fraction(boolean enable) {
+        best_fraction = enable;
+        reset_image = null;
+        param_cache_clear();
+    }
+
+    public boolean get_best_fraction() {
+        return best_fraction;
+    }
+
+    /**
+     * Get the actual output frequency of the specified CLK output, resulting
+     * from the PLL and multisynth ratios programmed and the corrected reference
+     * frequency.
+     *
+     * clk - Clock output
+     *   (use the si5351_clock enum)
+     *
+     * Returns the output frequency in Hz * 100, or 0 if the output
+     * is not driven by its multisynth
+     */
+    public double get_actual_freq(si5351_clock clk) throws IOException {
+        op_begin("get_actual_freq");
+        try {
+            double div = decode_clk_div(clk);
+            if (div <= 0) {
+                return 0;
+            }
+            si5351_pll pll = pll_assignment[clk.ordinal()];
+            int base = (pll == SI5351_PLLA) ? SI5351_PLLA_PARAMETERS : SI5351_PLLB_PARAMETERS;
+            return corrected_ref_freq(pll) * decode_params_ratio(base) / div;
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Select whether read-modify-write operations should read the current
+     * register value from the device instead of the register shadow.
+     * By default, the shadow filled at reset() and kept current by every
+     * write is used, so no bus reads are issued. When enabled, unchanged
+     * registers are never rewritten from the shadow to merge bursts.
+     *
+     * enable - Set to true to always read registers from the device,
+     *   false to use the register shadow
+     */
+    public void set_trust_hardware(boolean enable) {
+        trust_hardware = enable;
+    }
+
+    public boolean get_trust_hardware() {
+        return trust_hardware;
+    }
+
+    /**
+     * Select whether registers should be written even if the register
+     * shadow shows they already hold the requested value. By default,
+     * only changed registers are sent to the device. Enable full writes
+     * to reprogram a device which may have lost its configuration.
+     *
+     * enable - Set to true to always write all requested registers,
+     *   false to skip unchanged ones
+     */
+    public void set_force_full_writes(boolean enable) {
+        force_full_writes = enable;
+    }
+
+    public boolean get_force_full_writes() {
+        return force_full_writes;
+    }
+
+    /**
+     * Start buffering register writes. Buffered writes are sent to
+     * the device by the matching commit_transaction() call, merged into
+     * the fewest contiguous bursts. Multisynth registers are always
+     * written before PLL parameters, and all requested PLL resets are
+     * collapsed into a single write issued last.
+     *
+     * Transactions may be nested, only the outermost commit writes
+     * to the device.
+     */
+    public void begin_transaction() {
+        txn_depth++;
+    }
+
+    /**
+     * Finish the transaction started by begin_transaction() and,
+     * if it is the outermost one, write buffered registers to the device.
+     */
+    public void commit_transaction() throws IOException {
+        op_begin("commit_transaction");
+        try {
+            if (txn_depth == 0) {
+                throw new IllegalStateException("No transaction in progress");
+            }
+            if (--txn_depth == 0) {
+                txn_flush();
+            }
+        } finally {
+            op_end();
+        }
+    }
+
+    /**
+     * Finish the transaction started by begin_transaction() and,
+     * if it is the outermost one, discard buffered register writes.
+     */
+    public void abort_transaction() {
+        if (txn_depth == 0) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        if (--txn_depth == 0) {
+            txn_clear();
+            if (op_depth == 0) {
+                state_publish();
+            }
+        }
+    }
+
+    /**
+     * Run the given operations within a transaction. Buffered writes
+     * are discarded if the operations throw an exception.
+     *
+     * transaction - Operations to run
+     */
+    public void run_transaction(Si5351Transaction transaction) throws IOException {
+        begin_transaction();
+        try {
+            transaction.run();
+        } catch (IOException | RuntimeException e) {
+            abort_transaction();
+            throw e;
+        }
+        commit_transaction();
+    }
+
+    /**
+     * Attach metrics to collect bus traffic and latency of the operations,
+     * or detach them to stop collecting. Must not be called while
+     * an operation is in progress.
+     *
+     * metrics - Metrics to update, or null to disable metrics collection
+     */
+    public void set_metrics(Si5351Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Si5351Metrics get_metrics() {
+        return metrics;
+    }
+
+    /**
+     * Attach cache of computed PLL and multisynth parameters, so retuning
+     * to recently used frequencies skips the parameter calculation.
+     * Cached parameters are dropped whenever reference frequency, correction
+     * or PLL input changes. The cache should not be shared between devices.
+     *
+     * cache - Parameter cache, or null to disable caching
+     */
+    public void set_parameter_cache(Si5351ParameterCache cache) {
+        param_cache = cache;
+        param_cache_clear();
+    }
+
+    public Si5351ParameterCache get_parameter_cache() {
+        return param_cache;
+    }
+
+    /**
+     * Set readback verification of register writes. Verified writes are
+     * read back in the same bursts and compared with the written values.
+     * Mismatching writes are repeated up to SI5351_VERIFY_RETRIES times,
+     * then the operation fails with IOException. Verification reads are
+     * counted separately by the attached metrics.
+     *
+     * mode - Verification mode
+     *   (use the si5351_verify enum)
+     *   SI5351_VERIFY_OFF: no verification (default)
+     *   SI5351_VERIFY_ALL: verify every write transfer
+     *   SI5351_VERIFY_SAMPLED: verify every interval-th write transfer
+     * interval - Sampling interval in write transfers for SI5351_VERIFY_SAMPLED
+     */
+    public void set_verify(si5351_verify mode, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid verification interval: " + interval);
+        }
+        verify_mode = mode;
+        verify_interval = interval;
+        verify_count = 0;
+    }
+
+    public si5351_verify get_verify() {
+        return verify_mode;
+    }
+
+    public int get_verify_interval() {
+        return verify_interval;
+    }
+
+    /**
+     * Set listener notified about each register read back with a value
+     * other than written, including the ones corrected by a retry.
+     *
+     * listener - Verification listener, or null to remove it
+     */
+    public void set_verify_listener(Si5351VerifyListener listener) {
+        verify_listener = listener;
+    }
+
+    /**
+     * Enable or disable publishing of immutable state snapshots returned
+     * by get_state(). When enabled, a new snapshot is published after each
+     * completed operation or outermost transaction. Must not be called
+     * while an operation is in progress.
+     *
+     * enable - Set to true to publish state snapshots
+     */
+    public void set_state_publishing(boolean enable) {
+        state_publishing = enable;
+        if (enable) {
+            state_publish();
+        } else {
+            state = null;
+        }
+    }
+
+    public boolean get_state_publishing() {
+        return state_publishing;
+    }
+
+    /**
+     * Returns the last published state snapshot. Unlike the public fields,
+     * it may be called from any thread, e.g. to display or sample
+     * the device state while another thread is tuning it.
+     *
+     * Returns null if state publishing is disabled.
+     */
+    public Si5351State get_state() {
+        return state;
+    }
+
+    // Private functions
+
+    private void param_cache_clear() {
+        if (param_cache != null) {
+            param_cache.clear();
+        }
+    }
+
+    private Si5351FrequencySweep sweep_prepare(si5351_clock clk, long[] freqs, long dwell_us) throws IOException {
+        if (clk.ordinal() > SI5351_CLK5.ordinal()) {
+            throw new IllegalArgumentException("Sweep is not supported on " + clk);
+        }
+        if (dwell_us <= 0) {
+            throw new IllegalArgumentException("Invalid sweep dwell time: " + dwell_us);
+        }
+        if (txn_depth > 0) {
+            throw new IllegalStateException("Can't prepare sweep within a transaction");
+        }
+        long pll_freq = sweep_pll_freq(clk);
+        if (pll_freq == 0) {
+            throw new IllegalStateException("PLL of " + clk + " is not set");
+        }
+
+        // Register 44 for CLK0 holds R divider, DIVBY4 and P1 bits, keep the rest of it
+        int addr = SI5351_CLK0_PARAMETERS + clk.ordinal() * SI5351_PARAMETERS_LENGTH;
+        int reg_val = si5351_read_cached(addr + 2) & ~0x7F;
+
+        // Calculate multisynth parameters of all steps the same way as set_freq() does
+        Si5351RegSet ms_reg = new Si5351RegSet();
+        byte[] params = new byte[freqs.length * SI5351_PARAMETERS_LENGTH];
+        byte[] step_params = new byte[SI5351_PARAMETERS_LENGTH];
+        for (int i = 0; i < freqs.length; i++) {
+            long freq = freqs[i];
+            if (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT
+                    || freq > SI5351_MULTISYNTH_SHARE_MAX * SI5351_FREQ_MULT) {
+                throw new IllegalArgumentException("Sweep frequency out of range: " + freq);
+            }
+
+            int r_div = select_r_div(freq);
+            multisynth_calc(freq << r_div, pll_freq, ms_reg);
+            pll_pack(ms_reg, step_params);
+            step_params[2] = (byte) (reg_val | (r_div << SI5351_OUTPUT_CLK_DIV_SHIFT) | (step_params[2] & 0x03));
+            System.arraycopy(step_params, 0, params, i * SI5351_PARAMETERS_LENGTH, SI5351_PARAMETERS_LENGTH);
+        }
+
+        return new Si5351FrequencySweep(this, clk, freqs, params, pll_freq, dwell_us * 1000L);
+    }
+
+    long sweep_pll_freq(si5351_clock clk) {
+        return (pll_assignment[clk.ordinal()] == SI5351_PLLA) ? plla_freq : pllb_freq;
+    }
+
+    // Write precomputed multisynth parameter bytes of a sweep step
+    void sweep_step(si5351_clock clk, long freq, int offset, byte[] data, int bytes) throws IOException {
+        op_begin("sweep_step");
+        try {
+            if (txn_depth > 0) {
+                throw new IllegalStateException("Can't run sweep step within a transaction");
+            }
+            int addr = SI5351_CLK0_PARAMETERS + clk.ordinal() * SI5351_PARAMETERS_LENGTH + offset;
+            tone_params[clk.ordinal()] = null;
+            if (bytes == 1) {
+                bus_write(addr, data[0]);
+            } else if (bytes > 1) {
+                bus_write_bulk(addr, bytes, data);
+            }
+            clk_freq[clk.ordinal()] = freq;
+        } finally {
+            op_end();
+        }
+    }
+
+    private void op_begin(String name) {
+        op_depth++;
+        if (metrics != null) {
+            metrics.operationBegin(name);
+        }
+    }
+
+    private void op_end() {
+        if (metrics != null) {
+            metrics.operationEnd();
+        }
+        if (--op_depth == 0 && txn_depth == 0 && state_publishing) {
+            state_publish();
+        }
+    }
+
+    private void state_publish() {
+        if (!state_publishing) {
+            return;
+        }
+        int clocks = SI5351_CLOCKS.length;
+        si5351_drive[] drive = new si5351_drive[clocks];
+        si5351_drive[] drive_levels = si5351_drive.values();
+        for (int i = 0; i < clocks; i++) {
+            int addr = SI5351_CLK0_CTRL + i;
+            if (reg_shadow_valid[addr]) {
+                drive[i] = drive_levels[reg_shadow[addr] & 0x03];
+            }
+        }
+        // Output enable register bits are set for disabled outputs
+        int enable_mask = reg_shadow_valid[SI5351_OUTPUT_ENABLE_CTRL]
+                ? ~reg_shadow[SI5351_OUTPUT_ENABLE_CTRL] & 0xFF : -1;
+        state = new Si5351State(++state_sequence, System.nanoTime(), clk_freq.clone(), plla_freq, pllb_freq,
+                pll_assignment.clone(), drive, enable_mask, status_reg, int_status_reg);
+    }
+
+    private void si5351_write_bulk(int addr, int bytes, byte[] data) throws IOException {
+        // Writes are always staged, so only changed byte ranges reach the device
+        begin_transaction();
+        for (int i = 0; i < bytes; i++) {
+            txn_stage(addr + i, data[i]);
+        }
+        commit_transaction();
+    }
+
+    private void si5351_write(int addr, byte data) throws IOException {
+        begin_transaction();
+        txn_stage(addr, data);
+        commit_transaction();
+    }
+
+    private void bus_write_bulk(int addr, int bytes, byte[] data) throws IOException {
+        try {
+            transport.writeRegBuffer(addr, data, bytes);
+        } catch (IOException e) {
+            shadow_invalidate(addr, bytes);
+            if (metrics != null) {
+                metrics.transferError();
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            metrics.transferWrite(addr, bytes);
+        }
+        shadow_update(addr, bytes, data);
+        if (verify_due()) {
+            bus_verify(addr, bytes, data);
+        }
+    }
+
+    private void bus_write(int addr, byte data) throws IOException {
+        try {
+            transport.writeRegByte(addr, data);
+        } catch (IOException e) {
+            shadow_invalidate(addr, 1);
+            if (metrics != null) {
+                metrics.transferError();
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            metrics.transferWrite(addr, 1);
+        }
+        if (!is_volatile_reg(addr)) {
+            reg_shadow[addr] = data;
+            reg_shadow_valid[addr] = true;
+            reg_shadow_pending[addr] = false;
+            if (verify_due()) {
+                verify_data[0] = data;
+                bus_verify(addr, 1, verify_data);
+            }
+        }
+    }
+
+    private boolean verify_due() {
+        switch (verify_mode) {
+            case SI5351_VERIFY_ALL:
+                return true;
+            case SI5351_VERIFY_SAMPLED:
+                if (++verify_count >= verify_interval) {
+                    verify_count = 0;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    // Read back written registers, repeating the write on mismatch
+    private void bus_verify(int addr, int bytes, byte[] data) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (bytes == 1) {
+                    verify_buf[0] = transport.readRegByte(addr);
+                } else {
+                    transport.readRegBuffer(addr, verify_buf, bytes);
+                }
+            } catch (IOException e) {
+                if (metrics != null) {
+                    metrics.transferError();
+                }
+                throw e;
+            }
+            if (metrics != null) {
+                metrics.transferVerify(addr, bytes);
+            }
+
+            int mismatches = 0;
+            int first = -1;
+            for (int i = 0; i < bytes; i++) {
+                if (verify_buf[i] != data[i] && is_writable_reg(addr + i)) {
+                    mismatches++;
+                    if (first < 0) {
+                        first = i;
+                    }
+                    if (verify_listener != null) {
+                        verify_listener.onVerifyMismatch(addr + i, data[i], verify_buf[i], attempt);
+                    }
+                }
+            }
+            if (mismatches == 0) {
+                return;
+            }
+            if (metrics != null) {
+                metrics.verifyMismatch(mismatches);
+            }
+
+            if (attempt == SI5351_VERIFY_RETRIES) {
+                // Keep the intended values for resync()
+                for (int i = 0; i < bytes; i++) {
+                    if (verify_buf[i] != data[i] && is_writable_reg(addr + i)) {
+                        reg_shadow_valid[addr + i] = false;
+                        reg_shadow_pending[addr + i] = true;
+                    }
+                }
+                throw new IOException("Register " + (addr + first) + " verification failed: wrote 0x"
+                        + Integer.toHexString(data[first] & 0xFF) + ", read 0x"
+                        + Integer.toHexString(verify_buf[first] & 0xFF));
+            }
+
+            try {
+                if (bytes == 1) {
+                    transport.writeRegByte(addr, data[0]);
+                } else {
+                    transport.writeRegBuffer(addr, data, bytes);
+                }
+            } catch (IOException e) {
+                shadow_invalidate(addr, bytes);
+                if (metrics != null) {
+                    metrics.transferError();
+                }
+                throw e;
+            }
+            if (metrics != null) {
+                metrics.transferWrite(addr, bytes);
+            }
+        }
+    }
+
+    private byte si5351_read(int addr) throws IOException {
+        if (metrics == null) {
+            return transport.readRegByte(addr);
         }
+        byte data;
+        try {
+            data = transport.readRegByte(addr);
+        } catch (IOException e) {
+            metrics.transferError();
+            throw e;
+        }
+        metrics.transferRead(addr, 1);
+        return data;
     }
 
-    /**
-     * Set the desired PLL source for a multisynth.
-     *
-     * clk - Clock output
-     *   (use the si5351_clock enum)
-     * pll - Which PLL to use as the source
-     *     (use the si5351_pll enum)
-     */
-    public void set_ms_source(si5351_clock clk, si5351_pll pll) throws IOException {
-        byte reg_val = si5351_read(SI5351_CLK0_CTRL + clk.ordinal());
+    private void si5351_read_bulk(int addr, int bytes, byte[] data) throws IOException {
+        if (metrics == null) {
+            transport.readRegBuffer(addr, data, bytes);
+            return;
+        }
+        try {
+            transport.readRegBuffer(addr, data, bytes);
+        } catch (IOException e) {
+            metrics.transferError();
+            throw e;
+        }
+        metrics.transferRead(addr, bytes);
+    }
 
-        if (pll == si5351_pll.SI5351_PLLA) {
-            reg_val &= ~(SI5351_CLK_PLL_SELECT);
-        } else if (pll == si5351_pll.SI5351_PLLB) {
-            reg_val |= SI5351_CLK_PLL_SELECT;
+    private byte si5351_read_cached(int addr) throws IOException {
+        if (txn_depth > 0 && txn_dirty[addr]) {
+            return txn_regs[addr];
+        }
+        if (trust_hardware || !reg_shadow_valid[addr]) {
+            byte data = si5351_read(addr);
+            if (!is_volatile_reg(addr)) {
+                reg_shadow[addr] = data;
+                reg_shadow_valid[addr] = true;
+                reg_shadow_pending[addr] = false;
+            }
+            return data;
         }
+        return reg_shadow[addr];
+    }
 
-        si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+    private static boolean is_implemented_reg(int addr) {
+        for (int[] block : reg_blocks) {
+            if (addr >= block[0] && addr <= block[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        pll_assignment[clk.ordinal()] = pll;
+    static boolean is_writable_reg(int addr) {
+        return is_implemented_reg(addr) && !is_volatile_reg(addr);
     }
 
-    /**
-     * Set the indicated multisynth into integer mode.
-     *
-     * clk - Clock output
-     *   (use the si5351_clock enum)
-     * enable - Set to true to enable, false to disable
-     */
-    public void set_int(si5351_clock clk, boolean enable) throws IOException {
-        byte reg_val = si5351_read(SI5351_CLK0_CTRL + clk.ordinal());
+    private static boolean is_volatile_reg(int addr) {
+        // Status registers are updated by the device and PLL reset bits are self-clearing
+        return addr == SI5351_DEVICE_STATUS || addr == SI5351_INTERRUPT_STATUS
+                || addr == SI5351_PLL_RESET;
+    }
 
-        if (enable) {
-            reg_val |= (SI5351_CLK_INTEGER_MODE);
+    private void txn_stage(int addr, byte data) {
+        if (addr == SI5351_PLL_RESET) {
+            // Collapse PLL resets into a single write
+            txn_pll_reset |= data & (SI5351_PLL_RESET_A | SI5351_PLL_RESET_B);
+        } else if (!force_full_writes && !trust_hardware && reg_shadow_valid[addr]
+                && reg_shadow[addr] == data) {
+            // Device register already holds this value
+            txn_dirty[addr] = false;
         } else {
-            reg_val &= ~(SI5351_CLK_INTEGER_MODE);
+            txn_regs[addr] = data;
+            txn_dirty[addr] = true;
+            txn_dirty_first = Math.min(txn_dirty_first, addr);
+            txn_dirty_last = Math.max(txn_dirty_last, addr);
         }
-
-        si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
     }
 
-    /**
-     * Enable or disable power to a clock output (a power
-     * saving feature).
-     *
-     * clk - Clock output
-     *   (use the si5351_clock enum)
-     * pwr - Set to true to enable, false to disable
-     */
-    public void set_clock_pwr(si5351_clock clk, boolean pwr) throws IOException {
-        byte reg_val = si5351_read(SI5351_CLK0_CTRL + clk.ordinal());
+    private void txn_flush() throws IOException {
+        try {
+            // Multisynth and control registers must be written before PLL parameters
+            txn_flush_range(0, SI5351_PLLA_PARAMETERS - 1);
+            txn_flush_range(SI5351_CLK0_PARAMETERS, SI5351_REGISTER_MAP_SIZE - 1);
+            boolean pll_changed = txn_flush_range(SI5351_PLLA_PARAMETERS, SI5351_CLK0_PARAMETERS - 1);
+
+            // Then reset the PLLs
+            if (txn_pll_reset != 0) {
+                bus_write(SI5351_PLL_RESET, (byte) txn_pll_reset);
+                pll_reset_pending &= ~txn_pll_reset;
+                pll_changed = true;
+            }
 
-        if (pwr) {
-            reg_val &= 0b01111111;
-        } else {
-            reg_val |= 0b10000000;
+            if (pll_changed) {
+                pll_change_count++;
+            }
+        } catch (IOException | RuntimeException e) {
+            txn_keep_pending();
+            throw e;
+        } finally {
+            txn_clear();
         }
+    }
 
-        si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+    private void txn_keep_pending() {
+        // Remember values of the registers not written by the failed flush, so resync() can write them
+        for (int addr = txn_dirty_first; addr <= txn_dirty_last; addr++) {
+            if (txn_dirty[addr] && !(reg_shadow_valid[addr] && reg_shadow[addr] == txn_regs[addr])) {
+                reg_shadow[addr] = txn_regs[addr];
+                reg_shadow_valid[addr] = false;
+                reg_shadow_pending[addr] = true;
+            }
+        }
+        pll_reset_pending |= txn_pll_reset;
     }
 
-    /**
-     * Enable to invert the clock output waveform.
-     *
-     * clk - Clock output
-     *   (use the si5351_clock enum)
-     * inv - Set to true to enable, false to disable
-     */
-    public void set_clock_invert(si5351_clock clk, boolean inv) throws IOException {
-        byte reg_val = si5351_read(SI5351_CLK0_CTRL + clk.ordinal());
+    private boolean txn_flush_range(int first, int last) throws IOException {
+        boolean written = false;
+        int addr = Math.max(first, txn_dirty_first);
+        last = Math.min(last, txn_dirty_last);
+        while (addr <= last) {
+            if (!txn_dirty[addr]) {
+                addr++;
+                continue;
+            }
 
-        if (inv) {
-            reg_val |= (SI5351_CLK_INVERT);
-        } else {
-            reg_val &= ~(SI5351_CLK_INVERT);
+            // Extend the burst up to the last dirty register reachable by
+            // rewriting short runs of unchanged registers with their known values.
+            // Registers are not known when the hardware may change them behind the library.
+            int gap_max = trust_hardware ? 0 : SI5351_BURST_GAP_MAX;
+            int end = addr;
+            for (int i = addr + 1; i <= last && i - addr < SI5351_BURST_MAX_LENGTH; i++) {
+                if (txn_dirty[i]) {
+                    end = i;
+                } else if (i - end > gap_max || !is_implemented_reg(i)
+                        || is_volatile_reg(i) || !reg_shadow_valid[i]) {
+                    break;
+                }
+            }
+
+            int bytes = end - addr + 1;
+            for (int i = 0; i < bytes; i++) {
+                burst_buf[i] = txn_dirty[addr + i] ? txn_regs[addr + i] : reg_shadow[addr + i];
+            }
+
+            try {
+                if (bytes == 1) {
+                    bus_write(addr, burst_buf[0]);
+                } else {
+                    bus_write_bulk(addr, bytes, burst_buf);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Bridged registers may be corrupted by the failed burst, keep their values for resync()
+                for (int i = 0; i < bytes; i++) {
+                    if (!txn_dirty[addr + i]) {
+                        reg_shadow[addr + i] = burst_buf[i];
+                        reg_shadow_valid[addr + i] = false;
+                        reg_shadow_pending[addr + i] = true;
+                    }
+                }
+                throw e;
+            }
+            written = true;
+
+            addr = end + 1;
         }
 
-        si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+        return written;
     }
 
-    /**
-     * Set the clock source for a multisynth (based on the options
-     * presented for Registers 16-23 in the Silicon Labs AN619 document).
-     * Choices are XTAL, CLKIN, MS0, or the multisynth associated with
-     * the clock output.
-     *
-     * clk - Clock output
-     *   (use the si5351_clock enum)
-     * src - Which clock source to use for the multisynth
-     *   (use the si5351_clock_source enum)
-     */
-    public void set_clock_source(si5351_clock clk, si5351_clock_source src) throws IOException {
-        byte reg_val = si5351_read(SI5351_CLK0_CTRL + clk.ordinal());
+    private void registers_apply(Si5351RegisterImage image, boolean full_sequence) throws IOException {
+        if (txn_depth > 0) {
+            throw new IllegalStateException("Can't write register image within a transaction");
+        }
 
-        // Clear the bits first
-        reg_val &= ~(SI5351_CLK_INPUT_MASK);
+        byte output_enable = si5351_read_cached(SI5351_OUTPUT_ENABLE_CTRL);
+        if (image.contains(SI5351_OUTPUT_ENABLE_CTRL)) {
+            output_enable = image.get(SI5351_OUTPUT_ENABLE_CTRL);
+        }
 
-        switch (src) {
-            case SI5351_CLK_SRC_XTAL:
-                reg_val |= (SI5351_CLK_INPUT_XTAL);
-                break;
-            case SI5351_CLK_SRC_CLKIN:
-                reg_val |= (SI5351_CLK_INPUT_CLKIN);
-                break;
-            case SI5351_CLK_SRC_MS0:
-                if (clk == SI5351_CLK0) {
-                    return;
+        byte[] clk_ctrl = new byte[8];
+        for (int i = 0; i < clk_ctrl.length; i++) {
+            clk_ctrl[i] = image.contains(SI5351_CLK0_CTRL + i)
+                    ? image.get(SI5351_CLK0_CTRL + i) : si5351_read_cached(SI5351_CLK0_CTRL + i);
+        }
+
+        if (full_sequence) {
+            // Disable the outputs and power down the output drivers
+            si5351_write(SI5351_OUTPUT_ENABLE_CTRL, (byte) 0xFF);
+            byte[] params = new byte[8];
+            Arrays.fill(params, (byte) SI5351_CLK_POWERDOWN);
+            si5351_write_bulk(SI5351_CLK0_CTRL, params.length, params);
+        }
+
+        begin_transaction();
+        try {
+            for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+                if (addr >= SI5351_CLK0_CTRL && addr <= SI5351_CLK7_CTRL) {
+                    txn_stage(addr, clk_ctrl[addr - SI5351_CLK0_CTRL]);
+                } else if (addr != SI5351_OUTPUT_ENABLE_CTRL && image.contains(addr) && is_writable_reg(addr)) {
+                    txn_stage(addr, image.get(addr));
                 }
-                reg_val |= (SI5351_CLK_INPUT_MULTISYNTH_0_4);
-                break;
-            case SI5351_CLK_SRC_MS:
-                reg_val |= (SI5351_CLK_INPUT_MULTISYNTH_N);
-                break;
-            default:
-                return;
+            }
+
+            if (full_sequence || txn_has_dirty(SI5351_PLLA_PARAMETERS, SI5351_CLK6_7_OUTPUT_DIVIDER)) {
+                // Disable the outputs while PLLs and multisynths are reconfigured
+                si5351_write(SI5351_OUTPUT_ENABLE_CTRL, (byte) 0xFF);
+                txn_stage(SI5351_PLL_RESET, (byte) (SI5351_PLL_RESET_A | SI5351_PLL_RESET_B));
+            }
+        } catch (IOException | RuntimeException e) {
+            abort_transaction();
+            throw e;
         }
+        commit_transaction();
 
-        si5351_write(SI5351_CLK0_CTRL + clk.ordinal(), reg_val);
+        si5351_write(SI5351_OUTPUT_ENABLE_CTRL, output_enable);
     }
 
-    /**
-     * Set the state of the clock output when it is disabled. Per page 27
-     * of AN619 (Registers 24 and 25), there are four possible values: low,
-     * high, high impedance, and never disabled.
-     *
-     * clk - Clock output
-     *   (use the si5351_clock enum)
-     * dis_state - Desired state of the output upon disable
-     *   (use the si5351_clock_disable enum)
-     */
-    public void set_clock_disable(si5351_clock clk, si5351_clock_disable dis_state) throws IOException {
-        byte reg_val, reg;
+    private int registers_sync(Si5351RegisterImage image) throws IOException {
+        // Fill the register shadow from the device, so only differences are written
+        shadow_load();
+        int diverged = 0;
+        for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+            if (image.contains(addr) && is_writable_reg(addr) && reg_shadow[addr] != image.get(addr)) {
+                diverged++;
+            }
+        }
+        if (diverged != 0) {
+            // The shadow has just been read from the device, so diff against it
+            // even if the hardware isn't trusted to keep registers otherwise
+            boolean trust = trust_hardware;
+            trust_hardware = false;
+            try {
+                registers_apply(image, false);
+            } finally {
+                trust_hardware = trust;
+            }
+        }
+        if (pll_reset_pending != 0) {
+            // PLL reset lost by a failed write and not issued by registers_apply(),
+            // pending bits are cleared once the reset is written
+            si5351_write(SI5351_PLL_RESET, (byte) pll_reset_pending);
+        }
+        return diverged;
+    }
 
-        if (clk.ordinal() >= SI5351_CLK0.ordinal() && clk.ordinal() <= SI5351_CLK3.ordinal()) {
-            reg = SI5351_CLK3_0_DISABLE_STATE;
-        } else if (clk.ordinal() >= SI5351_CLK4.ordinal() && clk.ordinal() <= SI5351_CLK7.ordinal()) {
-            reg = SI5351_CLK7_4_DISABLE_STATE;
-        } else return;
+    private void state_decode() throws IOException {
+        byte input_source = si5351_read_cached(SI5351_PLL_INPUT_SOURCE);
+        plla_ref_osc = (input_source & SI5351_PLLA_SOURCE) != 0 ? SI5351_PLL_INPUT_CLKIN : SI5351_PLL_INPUT_XO;
+        pllb_ref_osc = (input_source & SI5351_PLLB_SOURCE) != 0 ? SI5351_PLL_INPUT_CLKIN : SI5351_PLL_INPUT_XO;
+        clkin_div = input_source & SI5351_CLKIN_DIV_MASK;
 
-        reg_val = si5351_read(reg);
+        plla_freq = decode_pll_freq(SI5351_PLLA);
+        pllb_freq = decode_pll_freq(SI5351_PLLB);
 
-        if (clk.ordinal() >= SI5351_CLK0.ordinal() && clk.ordinal() <= SI5351_CLK3.ordinal()) {
-            reg_val &= ~(0b11 << (clk.ordinal() * 2));
-            reg_val |= dis_state.ordinal() << (clk.ordinal() * 2);
-        } else if (clk.ordinal() >= SI5351_CLK4.ordinal() && clk.ordinal() <= SI5351_CLK7.ordinal()) {
-            reg_val &= ~(0b11 << ((clk.ordinal() - 4) * 2));
-            reg_val |= dis_state.ordinal() << ((clk.ordinal() - 4) * 2);
+        byte output_enable = si5351_read_cached(SI5351_OUTPUT_ENABLE_CTRL);
+        for (si5351_clock clk : si5351_clock.values()) {
+            byte ctrl = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+            pll_assignment[clk.ordinal()] = (ctrl & SI5351_CLK_PLL_SELECT) != 0 ? SI5351_PLLB : SI5351_PLLA;
+            clk_freq[clk.ordinal()] = decode_clk_freq(clk);
+            clk_first_set[clk.ordinal()] = (output_enable & (1 << clk.ordinal())) == 0;
         }
+        Arrays.fill(tone_params, null);
 
-        si5351_write(reg, reg_val);
+        reset_image = null;
+        param_cache_clear();
     }
 
-    /**
-     * Use this function to enable or disable the clock fanout options
-     * for individual clock outputs. If you intend to output the XO or
-     * CLKIN on the clock outputs, enable this first.
-     *
-     * By default, only the Multisynth fanout is enabled at startup.
-     *
-     * fanout - Desired clock fanout
-     *   (use the si5351_clock_fanout enum)
-     * enable - Set to true to enable, false to disable
-     */
-    public void set_clock_fanout(si5351_clock_fanout fanout, boolean enable) throws IOException {
-        byte reg_val = si5351_read(SI5351_FANOUT_ENABLE);
+    // Reference frequency of the PLL in Hz * 100 with correction applied, as in pll_calc()
+    private long corrected_ref_freq(si5351_pll pll) {
+        si5351_pll_input ref_osc = (pll == SI5351_PLLA) ? plla_ref_osc : pllb_ref_osc;
 
-        switch (fanout) {
-            case SI5351_FANOUT_CLKIN:
-                if (enable) {
-                    reg_val |= SI5351_CLKIN_ENABLE;
-                } else {
-                    reg_val &= ~(SI5351_CLKIN_ENABLE);
-                }
-                break;
-            case SI5351_FANOUT_XO:
-                if (enable) {
-                    reg_val |= SI5351_XTAL_ENABLE;
-                } else {
-                    reg_val &= ~(SI5351_XTAL_ENABLE);
-                }
-                break;
-            case SI5351_FANOUT_MS:
-                if (enable) {
-                    reg_val |= SI5351_MULTISYNTH_ENABLE;
-                } else {
-                    reg_val &= ~(SI5351_MULTISYNTH_ENABLE);
-                }
-                break;
-        }
+        long ref_freq = xtal_freq[ref_osc.ordinal()] * SI5351_FREQ_MULT;
+        return ref_freq + (int) ((((((long) ref_correction[ref_osc.ordinal()]) << 31) / 1000000000L) * ref_freq) >> 31);
+    }
+
+    private long decode_pll_freq(si5351_pll pll) throws IOException {
+        int base = (pll == SI5351_PLLA) ? SI5351_PLLA_PARAMETERS : SI5351_PLLB_PARAMETERS;
+        long ref_freq = corrected_ref_freq(pll);
 
-        si5351_write(SI5351_FANOUT_ENABLE, reg_val);
+        double ratio = decode_params_ratio(base);
+        return (ratio > 0) ? Math.round(ref_freq * ratio) : 0;
     }
 
-    /**
-     * Set the desired reference oscillator source for the given PLL.
-     *
-     * pll - Which PLL to use as the source
-     *     (use the si5351_pll enum)
-     * input - Which reference oscillator to use as PLL input
-     *     (use the si5351_pll_input enum)
-     */
-    public void set_pll_input(si5351_pll pll, si5351_pll_input input) throws IOException {
-        byte reg_val = si5351_read(SI5351_PLL_INPUT_SOURCE);
+    private long decode_clk_freq(si5351_clock clk) throws IOException {
+        byte ctrl = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+        long pll_freq = ((ctrl & SI5351_CLK_PLL_SELECT) != 0) ? pllb_freq : plla_freq;
+        double div = decode_clk_div(clk);
+        return (div > 0) ? Math.round(pll_freq / div) : 0;
+    }
 
-        // Clear the bits first
-        //reg_val &= ~(SI5351_CLKIN_DIV_MASK);
+    // Total division ratio from PLL to the output, including R divider, or 0 if unknown
+    private double decode_clk_div(si5351_clock clk) throws IOException {
+        byte ctrl = si5351_read_cached(SI5351_CLK0_CTRL + clk.ordinal());
+        if ((ctrl & SI5351_CLK_INPUT_MASK) != SI5351_CLK_INPUT_MULTISYNTH_N) {
+            // Output is not driven by its own multisynth
+            return 0;
+        }
 
-        switch (pll) {
-            case SI5351_PLLA:
-                if (input == SI5351_PLL_INPUT_CLKIN) {
-                    reg_val |= SI5351_PLLA_SOURCE;
-                    reg_val |= clkin_div;
-                    plla_ref_osc = SI5351_PLL_INPUT_CLKIN;
-                } else {
-                    reg_val &= ~(SI5351_PLLA_SOURCE);
-                    plla_ref_osc = SI5351_PLL_INPUT_XO;
-                }
-                break;
-            case SI5351_PLLB:
-                if (input == SI5351_PLL_INPUT_CLKIN) {
-                    reg_val |= SI5351_PLLB_SOURCE;
-                    reg_val |= clkin_div;
-                    pllb_ref_osc = SI5351_PLL_INPUT_CLKIN;
-                } else {
-                    reg_val &= ~(SI5351_PLLB_SOURCE);
-                    pllb_ref_osc = SI5351_PLL_INPUT_XO;
-                }
-                break;
-            default:
-                return;
+        double ms_div;
+        int r_div;
+        if (clk.ordinal() <= SI5351_CLK5.ordinal()) {
+            int base = SI5351_CLK0_PARAMETERS + clk.ordinal() * SI5351_PARAMETERS_LENGTH;
+            byte div_reg = si5351_read_cached(base + 2);
+            if ((div_reg & SI5351_OUTPUT_CLK_DIVBY4) == SI5351_OUTPUT_CLK_DIVBY4) {
+                ms_div = 4;
+            } else {
+                ms_div = decode_params_ratio(base);
+            }
+            r_div = (div_reg & SI5351_OUTPUT_CLK_DIV_MASK) >> SI5351_OUTPUT_CLK_DIV_SHIFT;
+        } else {
+            ms_div = si5351_read_cached(SI5351_CLK6_PARAMETERS + clk.ordinal() - SI5351_CLK6.ordinal()) & 0xFF;
+            byte div_reg = si5351_read_cached(SI5351_CLK6_7_OUTPUT_DIVIDER);
+            r_div = (clk == SI5351_CLK6)
+                    ? (div_reg & SI5351_OUTPUT_CLK6_DIV_MASK) >> SI5351_OUTPUT_CLK_DIV6_SHIFT
+                    : (div_reg & SI5351_OUTPUT_CLK_DIV_MASK) >> SI5351_OUTPUT_CLK_DIV_SHIFT;
         }
 
-        si5351_write(SI5351_PLL_INPUT_SOURCE, reg_val);
+        return ms_div * (1 << r_div);
+    }
+
+    private double decode_params_ratio(int base) throws IOException {
+        int r0 = si5351_read_cached(base) & 0xFF;
+        int r1 = si5351_read_cached(base + 1) & 0xFF;
+        int r2 = si5351_read_cached(base + 2) & 0xFF;
+        int r3 = si5351_read_cached(base + 3) & 0xFF;
+        int r4 = si5351_read_cached(base + 4) & 0xFF;
+        int r5 = si5351_read_cached(base + 5) & 0xFF;
+        int r6 = si5351_read_cached(base + 6) & 0xFF;
+        int r7 = si5351_read_cached(base + 7) & 0xFF;
+
+        int p3 = ((r5 & 0xF0) << 12) | (r0 << 8) | r1;
+        int p1 = ((r2 & 0x03) << 16) | (r3 << 8) | r4;
+        int p2 = ((r5 & 0x0F) << 16) | (r6 << 8) | r7;
+        if (p3 == 0) {
+            // Parameters are not programmed
+            return 0;
+        }
 
-        set_pll(plla_freq, SI5351_PLLA);
-        set_pll(pllb_freq, SI5351_PLLB);
+        // a + b / c = (P1 + 512 + P2 / P3) / 128
+        return (p1 + 512 + (double) p2 / p3) / 128.0;
     }
 
-    /**
-     * Set the parameters for the VCXO on the Si5351B.
-     *
-     * pll_freq - Desired PLL base frequency in Hz * 100
-     * ppm - VCXO pL limit in ppm
-     */
-    public void set_vcxo(long pll_freq, int ppm) throws IOException {
-        Si5351RegSet pll_reg = new Si5351RegSet();
-        long vcxo_param;
+    private boolean txn_has_dirty(int first, int last) {
+        for (int addr = Math.max(first, txn_dirty_first); addr <= Math.min(last, txn_dirty_last); addr++) {
+            if (txn_dirty[addr]) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // Bounds check
-        if (ppm < SI5351_VCXO_PL_MIN) {
-            ppm = SI5351_VCXO_PL_MIN;
+    private void txn_clear() {
+        if (txn_dirty_first <= txn_dirty_last) {
+            Arrays.fill(txn_dirty, txn_dirty_first, txn_dirty_last + 1, false);
         }
+        txn_dirty_first = SI5351_REGISTER_MAP_SIZE;
+        txn_dirty_last = -1;
+        txn_pll_reset = 0;
+    }
+
+    private void registers_load(byte[] values) throws IOException {
+        int b = 0;
+        while (b < reg_blocks.length) {
+            int first = reg_blocks[b][0];
+            int last = reg_blocks[b][1];
+
+            // Bridge short reserved holes between blocks to save transfers
+            while (b + 1 < reg_blocks.length && reg_blocks[b + 1][0] - last - 1 <= SI5351_BURST_GAP_MAX) {
+                last = reg_blocks[++b][1];
+            }
+            b++;
+
+            for (int addr = first; addr <= last; addr += SI5351_BURST_MAX_LENGTH) {
+                int bytes = Math.min(SI5351_BURST_MAX_LENGTH, last - addr + 1);
+                si5351_read_bulk(addr, bytes, burst_buf);
+                System.arraycopy(burst_buf, 0, values, addr, bytes);
+            }
+        }
+    }
 
-        if (ppm > SI5351_VCXO_PL_MAX) {
-            ppm = SI5351_VCXO_PL_MAX;
+    private void shadow_load() throws IOException {
+        byte[] values = new byte[SI5351_REGISTER_MAP_SIZE];
+        registers_load(values);
+        shadow_update(0, SI5351_REGISTER_MAP_SIZE, values);
+    }
+
+    private void shadow_update(int addr, int bytes, byte[] data) {
+        for (int i = 0; i < bytes; i++) {
+            if (is_writable_reg(addr + i)) {
+                reg_shadow[addr + i] = data[i];
+                reg_shadow_valid[addr + i] = true;
+                reg_shadow_pending[addr + i] = false;
+            }
         }
+    }
 
-        // Set PLLB params
-        vcxo_param = pll_calc(SI5351_PLLB, pll_freq, pll_reg, ref_correction[pllb_ref_osc.ordinal()], true);
+    private void shadow_invalidate(int addr, int bytes) {
+        // Device state is unknown after a failed write
+        for (int i = 0; i < bytes; i++) {
+            reg_shadow_valid[addr + i] = false;
+            reg_shadow_pending[addr + i] = false;
+        }
+    }
 
-        // Derive the register values to write
+    private void wait_sys_init() throws IOException {
+        long deadline = System.currentTimeMillis() + SI5351_SYS_INIT_TIMEOUT_MS;
+        long delay = SI5351_SYS_INIT_POLL_MIN_MS;
+        while ((si5351_read(SI5351_DEVICE_STATUS) & SI5351_STATUS_SYS_INIT) != 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IOException("Si5351 system initialization timeout");
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for Si5351 initialization");
+            }
+            delay = Math.min(delay * 2, SI5351_SYS_INIT_POLL_MAX_MS);
+        }
+    }
 
-        // Prepare an array for parameters to be written to
-        byte[] params = new byte[20];
+    private static int pll_pack(Si5351RegSet pll_reg, byte[] params) {
         int i = 0;
         byte temp;
 
@@ -1256,63 +3160,10 @@ public class Si5351 {
         temp = (byte) (pll_reg.p2 & 0xFF);
         params[i++] = temp;
 
-        // Write the parameters
-        si5351_write_bulk(SI5351_PLLB_PARAMETERS, i, params);
-
-        // Write the VCXO parameters
-        vcxo_param = ((vcxo_param * ppm * SI5351_VCXO_MARGIN) / 100L) / 1000000L;
-
-        temp = (byte) (vcxo_param & 0xFF);
-        si5351_write(SI5351_VXCO_PARAMETERS_LOW, temp);
-
-        temp = (byte) ((vcxo_param >> 8) & 0xFF);
-        si5351_write(SI5351_VXCO_PARAMETERS_MID, temp);
-
-        temp = (byte) ((vcxo_param >> 16) & 0x3F);
-        si5351_write(SI5351_VXCO_PARAMETERS_HIGH, temp);
-    }
-
-    /**
-     * Set the reference frequency value for the desired reference oscillator.
-     *
-     * ref_freq - Reference oscillator frequency in Hz
-     * ref_osc - Which reference oscillator frequency to set
-     *    (use the si5351_pll_input enum)
-     */
-    public void set_ref_freq(int ref_freq, si5351_pll_input ref_osc) {
-        if (ref_freq <= 30_000_000) {
-            xtal_freq[ref_osc.ordinal()] = ref_freq;
-            if (ref_osc == SI5351_PLL_INPUT_CLKIN) {
-                clkin_div = SI5351_CLKIN_DIV_1;
-            }
-        } else if (ref_freq <= 60_000_000) {
-            xtal_freq[ref_osc.ordinal()] = ref_freq / 2;
-            if (ref_osc == SI5351_PLL_INPUT_CLKIN) {
-                clkin_div = SI5351_CLKIN_DIV_2;
-            }
-        } else if (ref_freq <= 100_000_000) {
-            xtal_freq[ref_osc.ordinal()] = ref_freq / 4;
-            if (ref_osc == SI5351_PLL_INPUT_CLKIN) {
-                clkin_div = SI5351_CLKIN_DIV_4;
-            }
-        }
-    }
-
-    // Private functions
-
-    private void si5351_write_bulk(int addr, int bytes, byte[] data) throws IOException {
-        device.writeRegBuffer(addr, data, bytes);
-    }
-
-    private void si5351_write(int addr, byte data) throws IOException {
-        device.writeRegByte(addr, data);
-    }
-
-    private byte si5351_read(int addr) throws IOException {
-        return device.readRegByte(addr);
+        return i;
     }
 
-    private long pll_calc(si5351_pll pll, long freq, Si5351RegSet reg, int correction, boolean vcxo) {
+    long pll_calc(si5351_pll pll, long freq, Si5351RegSet reg, int correction, boolean vcxo) {
         long ref_freq;
         if (pll == SI5351_PLLA) {
             ref_freq = xtal_freq[plla_ref_osc.ordinal()] * SI5351_FREQ_MULT;
@@ -1359,6 +3210,16 @@ public class Si5351 {
         } else {
             b = (int) (((freq % ref_freq) * RFRAC_DENOM) / ref_freq);
             c = (b != 0) ? RFRAC_DENOM : 1;
+            if (best_fraction) {
+                long frac = frac_approx(freq % ref_freq, ref_freq, SI5351_PLL_C_MAX);
+                b = (int) (frac >>> 32);
+                c = (int) frac;
+                if (b == c) {
+                    a++;
+                    b = 0;
+                    c = 1;
+                }
+            }
         }
 
         // Calculate parameters
@@ -1384,7 +3245,7 @@ public class Si5351 {
         }
     }
 
-    private long multisynth_calc(long freq, long pll_freq, Si5351RegSet reg) {
+    long multisynth_calc(long freq, long pll_freq, Si5351RegSet reg) {
         long lltmp;
         int a, b, c, p1, p2, p3;
         int divby4 = 0;
@@ -1437,6 +3298,16 @@ public class Si5351 {
 
             b = (int) ((pll_freq % freq * RFRAC_DENOM) / freq);
             c = (b != 0) ? RFRAC_DENOM : 1;
+            if (best_fraction) {
+                long frac = frac_approx(pll_freq % freq, freq, SI5351_MULTISYNTH_C_MAX);
+                b = (int) (frac >>> 32);
+                c = (int) frac;
+                if (b == c) {
+                    a++;
+                    b = 0;
+                    c = 1;
+                }
+            }
         }
 
         // Calculate parameters
@@ -1461,7 +3332,42 @@ public class Si5351 {
         }
     }
 
-    private long multisynth67_calc(long freq, long pll_freq, Si5351RegSet reg) {
+    // Best rational approximation b / c of num / den with c <= max_den, packed as (b << 32) | c.
+    // Continued fraction convergents grow at least as fast as Fibonacci numbers,
+    // so the loop ends within 30 iterations for 20-bit denominators.
+    static long frac_approx(long num, long den, int max_den) {
+        long p0 = 0, q0 = 1, p1 = 1, q1 = 0;
+        long n = num, d = den;
+        while (d != 0) {
+            long a = n / d;
+            long q2 = q0 + a * q1;
+            if (q2 > max_den) {
+                break;
+            }
+            long p2 = p0 + a * p1;
+            p0 = p1;
+            q0 = q1;
+            p1 = p2;
+            q1 = q2;
+            long r = n - a * d;
+            n = d;
+            d = r;
+        }
+        if (d == 0) {
+            // Exact ratio fits the denominator
+            return (p1 << 32) | q1;
+        }
+
+        // Pick the closer of the last convergent and the best semiconvergent
+        long k = (max_den - q0) / q1;
+        long ps = p0 + k * p1;
+        long qs = q0 + k * q1;
+        double err1 = Math.abs(p1 * den - num * q1) / (double) q1;
+        double err2 = Math.abs(ps * den - num * qs) / (double) qs;
+        return (err2 < err1) ? (ps << 32) | qs : (p1 << 32) | q1;
+    }
+
+    long multisynth67_calc(long freq, long pll_freq, Si5351RegSet reg) {
         int a;
         long lltmp;
 
@@ -1530,9 +3436,7 @@ public class Si5351 {
         }
     }
 
-    private void update_sys_status(Si5351Status status) throws IOException {
-        byte reg_val = si5351_read(SI5351_DEVICE_STATUS);
-
+    private void update_sys_status(Si5351Status status, byte reg_val) {
         // Parse the register
         status.SYS_INIT = ((reg_val >> 7) & 0x01) != 0;
         status.LOL_B = ((reg_val >> 6) & 0x01) != 0;
@@ -1541,9 +3445,7 @@ public class Si5351 {
         status.REVID = reg_val & 0x03;
     }
 
-    private void update_int_status(Si5351IntStatus int_status) throws IOException {
-        byte reg_val = si5351_read(SI5351_INTERRUPT_STATUS);
-
+    private void update_int_status(Si5351IntStatus int_status, byte reg_val) {
         // Parse the register
         int_status.SYS_INIT_STKY = ((reg_val >> 7) & 0x01) != 0;
         int_status.LOL_B_STKY = ((reg_val >> 6) & 0x01) != 0;
@@ -1582,7 +3484,7 @@ public class Si5351 {
                 break;
         }
 
-        reg_val = si5351_read(reg_addr);
+        reg_val = si5351_read_cached(reg_addr);
 
         if (clk.ordinal() <= SI5351_CLK5.ordinal()) {
             // Clear the relevant bits
@@ -1610,61 +3512,49 @@ public class Si5351 {
         si5351_write(reg_addr, reg_val);
     }
 
-    private int select_r_div(long[] freq) {
+    // Multisynth must run at output frequency multiplied by R divider, i.e. freq << r_div
+    int select_r_div(long freq) {
         int r_div = SI5351_OUTPUT_CLK_DIV_1;
 
         // Choose the correct R divider
-        if ((freq[0] >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT) && (freq[0] < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 2)) {
+        if ((freq >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT) && (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 2)) {
             r_div = SI5351_OUTPUT_CLK_DIV_128;
-            freq[0] *= 128L;
-        } else if ((freq[0] >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 2) && (freq[0] < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 4)) {
+        } else if ((freq >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 2) && (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 4)) {
             r_div = SI5351_OUTPUT_CLK_DIV_64;
-            freq[0] *= 64L;
-        } else if ((freq[0] >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 4) && (freq[0] < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 8)) {
+        } else if ((freq >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 4) && (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 8)) {
             r_div = SI5351_OUTPUT_CLK_DIV_32;
-            freq[0] *= 32L;
-        } else if ((freq[0] >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 8) && (freq[0] < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 16)) {
+        } else if ((freq >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 8) && (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 16)) {
             r_div = SI5351_OUTPUT_CLK_DIV_16;
-            freq[0] *= 16L;
-        } else if ((freq[0] >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 16) && (freq[0] < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 32)) {
+        } else if ((freq >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 16) && (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 32)) {
             r_div = SI5351_OUTPUT_CLK_DIV_8;
-            freq[0] *= 8L;
-        } else if ((freq[0] >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 32) && (freq[0] < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 64)) {
+        } else if ((freq >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 32) && (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 64)) {
             r_div = SI5351_OUTPUT_CLK_DIV_4;
-            freq[0] *= 4L;
-        } else if ((freq[0] >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 64) && (freq[0] < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 128)) {
+        } else if ((freq >= SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 64) && (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT * 128)) {
             r_div = SI5351_OUTPUT_CLK_DIV_2;
-            freq[0] *= 2L;
         }
 
         return r_div;
     }
 
-    private int select_r_div_ms67(long[] freq) {
+    // Multisynth must run at output frequency multiplied by R divider, i.e. freq << r_div
+    int select_r_div_ms67(long freq) {
         int r_div = SI5351_OUTPUT_CLK_DIV_1;
 
         // Choose the correct R divider
-        if ((freq[0] >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT) && (freq[0] < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 2)) {
+        if ((freq >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT) && (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 2)) {
             r_div = SI5351_OUTPUT_CLK_DIV_128;
-            freq[0] *= 128L;
-        } else if ((freq[0] >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 2) && (freq[0] < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 4)) {
+        } else if ((freq >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 2) && (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 4)) {
             r_div = SI5351_OUTPUT_CLK_DIV_64;
-            freq[0] *= 64L;
-        } else if ((freq[0] >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 4) && (freq[0] < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 8)) {
+        } else if ((freq >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 4) && (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 8)) {
             r_div = SI5351_OUTPUT_CLK_DIV_32;
-            freq[0] *= 32L;
-        } else if ((freq[0] >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 8) && (freq[0] < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 16)) {
+        } else if ((freq >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 8) && (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 16)) {
             r_div = SI5351_OUTPUT_CLK_DIV_16;
-            freq[0] *= 16L;
-        } else if ((freq[0] >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 16) && (freq[0] < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 32)) {
+        } else if ((freq >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 16) && (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 32)) {
             r_div = SI5351_OUTPUT_CLK_DIV_8;
-            freq[0] *= 8L;
-        } else if ((freq[0] >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 32) && (freq[0] < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 64)) {
+        } else if ((freq >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 32) && (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 64)) {
             r_div = SI5351_OUTPUT_CLK_DIV_4;
-            freq[0] *= 4L;
-        } else if ((freq[0] >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 64) && (freq[0] < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 128)) {
+        } else if ((freq >= SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 64) && (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT * 128)) {
             r_div = SI5351_OUTPUT_CLK_DIV_2;
-            freq[0] *= 2L;
         }
 
         return r_div;
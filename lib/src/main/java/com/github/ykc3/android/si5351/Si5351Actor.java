@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe front end of a Si5351 device. All device operations run on
+ * a single I/O thread owned by the actor, taken from a bounded mailbox in
+ * submission order, so each call sees and leaves the device in a consistent
+ * state regardless of the number of calling threads. Producers block while
+ * the mailbox is full. Calls made from the I/O thread itself never block,
+ * since waiting for room there would never end: they are put to a separate
+ * unbounded queue and run, in their order, before the next call from
+ * the mailbox.
+ *
+ * <p>The actor is also an {@link Executor} running tasks on its I/O thread,
+ * e.g. for {@link Si5351CommandQueue}. Once the actor is created, the device
+ * must only be accessed through it.
+ */
+public class Si5351Actor implements Executor {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public interface Call<T> {
+        T call(Si5351 si5351) throws IOException;
+    }
+
+    private static final Runnable STOP = () -> {
+    };
+
+    private final Si5351 si5351;
+    private final BlockingQueue<Runnable> mailbox;
+    // Calls made from the I/O thread, only accessed by it
+    private final Queue<Runnable> local = new ArrayDeque<>();
+    private final Thread thread;
+    private volatile boolean shutdown;
+
+    public Si5351Actor(Si5351 si5351) {
+        this(si5351, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create actor and start its I/O thread.
+     *
+     * @param si5351 device to own
+     * @param capacity maximum number of pending calls
+     */
+    public Si5351Actor(Si5351 si5351, int capacity) {
+        this.si5351 = si5351;
+        this.mailbox = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "Si5351 actor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue call to the device, waiting while the mailbox is full.
+     *
+     * @param call call to run on the I/O thread
+     * @return future completing with the call result, or failing with
+     *         the I/O error thrown by the call
+     * @throws InterruptedException if interrupted while waiting
+     * @throws RejectedExecutionException if the actor is shut down
+     */
+    public <T> Future<T> call(Call<T> call) throws InterruptedException {
+        FutureTask<T> task = newTask(call);
+        enqueue(task, -1L);
+        return task;
+    }
+
+    /**
+     * Queue call to the device, waiting up to the given time while the mailbox is full.
+     *
+     * @param call call to run on the I/O thread
+     * @param timeout maximum time to wait
+     * @param unit time unit of the timeout
+     * @return future completing with the call result, or null if the mailbox
+     *         stayed full
+     * @throws InterruptedException if interrupted while waiting
+     * @throws RejectedExecutionException if the actor is shut down
+     */
+    public <T> Future<T> tryCall(Call<T> call, long timeout, TimeUnit unit) throws InterruptedException {
+        FutureTask<T> task = newTask(call);
+        return enqueue(task, unit.toNanos(timeout)) ? task : null;
+    }
+
+    /**
+     * Queue command to the device, waiting while the mailbox is full.
+     *
+     * @param command command to run on the I/O thread
+     * @return future completing when the command is done
+     * @throws InterruptedException if interrupted while waiting
+     * @throws RejectedExecutionException if the actor is shut down
+     */
+    public Future<Void> run(Si5351CommandQueue.Command command) throws InterruptedException {
+        return call(s -> {
+            command.run(s);
+            return null;
+        });
+    }
+
+    /**
+     * Run task on the I/O thread, waiting while the mailbox is full.
+     *
+     * @throws RejectedExecutionException if the actor is shut down
+     *                                    or the caller is interrupted
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            enqueue(task, -1L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for mailbox", e);
+        }
+    }
+
+    /**
+     * Get device owned by the actor. It must only be used from calls
+     * running on the I/O thread.
+     *
+     * @return device
+     */
+    public Si5351 getDevice() {
+        return si5351;
+    }
+
+    public boolean isActorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Get number of calls waiting in the mailbox.
+     *
+     * @return number of pending calls
+     */
+    public int getPendingCount() {
+        return mailbox.size();
+    }
+
+    /**
+     * Stop accepting calls. Calls already queued are run before
+     * the I/O thread exits.
+     */
+    public void shutdown() {
+        shutdown = true;
+        // Wake up the idle I/O thread, a busy one checks the flag after each call
+        mailbox.offer(STOP);
+    }
+
+    /**
+     * Wait for the I/O thread to exit after {@link #shutdown()}.
+     *
+     * @param timeoutMs maximum time to wait in milliseconds, 0 to wait forever
+     * @return true if the I/O thread has exited
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        thread.join(timeoutMs);
+        return !thread.isAlive();
+    }
+
+    private <T> FutureTask<T> newTask(Call<T> call) {
+        return new FutureTask<>(() -> call.call(si5351));
+    }
+
+    private boolean enqueue(Runnable task, long timeoutNanos) throws InterruptedException {
+        if (shutdown) {
+            throw new RejectedExecutionException("Actor is shut down");
+        }
+        if (isActorThread()) {
+            local.add(task);
+            return true;
+        }
+        if (timeoutNanos < 0) {
+            mailbox.put(task);
+        } else if (!mailbox.offer(task, timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        // The I/O thread may have drained the mailbox and exited while we waited for room
+        if (shutdown && mailbox.remove(task)) {
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+            throw new RejectedExecutionException("Actor is shut down");
+        }
+        return true;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Runnable task = local.poll();
+                if (task == null) {
+                    try {
+                        task = mailbox.take();
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                }
+                if (task != STOP) {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        // Keep serving calls after a failed executor task
+                        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+                        handler.uncaughtException(thread, e);
+                    }
+                }
+                if (shutdown && local.isEmpty() && mailbox.isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            // Reject further calls, also if the I/O thread dies, and cancel
+            // calls queued concurrently with shutdown
+            shutdown = true;
+            List<Runnable> rest = new ArrayList<>(local);
+            local.clear();
+            mailbox.drainTo(rest);
+            for (Runnable task : rest) {
+                if (task instanceof Future) {
+                    ((Future<?>) task).cancel(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock;
+import static com.github.ykc3.android.si5351.Si5351.si5351_drive;
+import static com.github.ykc3.android.si5351.Si5351.si5351_pll_input;
+
+/**
+ * Queue of Si5351 commands where a pending command is replaced by a newer one
+ * submitted for the same target (e.g. frequency of the same clock output),
+ * so only the latest requested state reaches the device.
+ *
+ * <p>Commands run one at a time on the given executor, which must be the only
+ * one accessing the Si5351 instance.
+ */
+public class Si5351CommandQueue {
+    public interface Command {
+        void run(Si5351 si5351) throws IOException;
+    }
+
+    public interface ErrorListener {
+        /**
+         * Called on the executor thread when a command fails.
+         *
+         * @param key key the command was submitted with
+         * @param e I/O error or runtime exception thrown by the command
+         */
+        void onCommandError(Object key, Exception e);
+    }
+
+    private enum Target {
+        CLOCK_FREQUENCY, CLOCK_DRIVE_STRENGTH, CLOCK_OUTPUT_ENABLE, CORRECTION
+    }
+
+    private static final class Key {
+        private final Target target;
+        private final Enum<?> subject;
+
+        private Key(Target target, Enum<?> subject) {
+            this.target = target;
+            this.subject = subject;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return target == key.target && subject == key.subject;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * target.hashCode() + subject.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return target + ":" + subject;
+        }
+    }
+
+    private final Si5351 si5351;
+    private final Executor executor;
+    private final Map<Object, Command> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+    private ErrorListener errorListener;
+
+    private final Runnable runNext = this::runNext;
+
+    /**
+     * Create command queue.
+     *
+     * @param si5351 device to run commands on
+     * @param executor executor running commands, e.g. {@code handler::post}
+     */
+    public Si5351CommandQueue(Si5351 si5351, Executor executor) {
+        this.si5351 = si5351;
+        this.executor = executor;
+    }
+
+    public synchronized void setErrorListener(ErrorListener errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Submit command replacing pending command with the same key, if any.
+     * Commands run in the order of their latest submission.
+     *
+     * @param key command target key
+     * @param command command to run
+     */
+    public void submit(Object key, Command command) {
+        synchronized (this) {
+            // Replaced command moves to the end of the queue
+            pending.remove(key);
+            pending.put(key, command);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        executor.execute(runNext);
+    }
+
+    public void setFrequency(si5351_clock clk, long freq) {
+        submit(new Key(Target.CLOCK_FREQUENCY, clk), si5351 -> si5351.set_freq(freq, clk));
+    }
+
+    public void setDriveStrength(si5351_clock clk, si5351_drive drive) {
+        submit(new Key(Target.CLOCK_DRIVE_STRENGTH, clk), si5351 -> si5351.drive_strength(clk, drive));
+    }
+
+    public void setOutputEnable(si5351_clock clk, boolean enable) {
+        submit(new Key(Target.CLOCK_OUTPUT_ENABLE, clk), si5351 -> si5351.output_enable(clk, enable));
+    }
+
+    public void setCorrection(int corr, si5351_pll_input ref_osc) {
+        submit(new Key(Target.CORRECTION, ref_osc), si5351 -> si5351.set_correction(corr, ref_osc));
+    }
+
+    /**
+     * Key to submit clock frequency commands with, so they replace
+     * commands queued by {@link #setFrequency(si5351_clock, long)}.
+     */
+    public static Object frequencyKey(si5351_clock clk) {
+        return new Key(Target.CLOCK_FREQUENCY, clk);
+    }
+
+    /**
+     * Key to submit drive strength commands with, so they replace
+     * commands queued by {@link #setDriveStrength(si5351_clock, si5351_drive)}.
+     */
+    public static Object driveStrengthKey(si5351_clock clk) {
+        return new Key(Target.CLOCK_DRIVE_STRENGTH, clk);
+    }
+
+    /**
+     * Key to submit output enable commands with, so they replace
+     * commands queued by {@link #setOutputEnable(si5351_clock, boolean)}.
+     */
+    public static Object outputEnableKey(si5351_clock clk) {
+        return new Key(Target.CLOCK_OUTPUT_ENABLE, clk);
+    }
+
+    /**
+     * Key to submit correction commands with, so they replace
+     * commands queued by {@link #setCorrection(int, si5351_pll_input)}.
+     */
+    public static Object correctionKey(si5351_pll_input ref_osc) {
+        return new Key(Target.CORRECTION, ref_osc);
+    }
+
+    /**
+     * Drop all pending commands.
+     */
+    public synchronized void clear() {
+        pending.clear();
+    }
+
+    private void runNext() {
+        Object key;
+        Command command;
+        ErrorListener listener;
+        synchronized (this) {
+            Iterator<Map.Entry<Object, Command>> it = pending.entrySet().iterator();
+            if (!it.hasNext()) {
+                scheduled = false;
+                return;
+            }
+            Map.Entry<Object, Command> entry = it.next();
+            it.remove();
+            key = entry.getKey();
+            command = entry.getValue();
+            listener = errorListener;
+        }
+
+        try {
+            command.run(si5351);
+        } catch (IOException | RuntimeException e) {
+            if (listener != null) {
+                listener.onCommandError(key, e);
+            }
+        } finally {
+            // Run next command as a separate task to let other executor tasks interleave
+            boolean more;
+            synchronized (this) {
+                more = !pending.isEmpty();
+                scheduled = more;
+            }
+            if (more) {
+                executor.execute(runNext);
+            }
+        }
+    }
+}
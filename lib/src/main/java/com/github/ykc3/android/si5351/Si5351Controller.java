@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import com.github.ykc3.android.usbi2c.UsbI2cAdapter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Controller of several Si5351 devices spread over one or more I2C buses,
+ * e.g. multiple USB I2C adapters with a few devices at different addresses each.
+ *
+ * <p>Each bus gets its own I/O thread, so devices on independent buses are
+ * configured concurrently, while devices sharing a bus are accessed one at a time.
+ * Once added, a device must only be accessed through the controller.
+ */
+public class Si5351Controller {
+    /**
+     * Outcome of a command run on a single device.
+     */
+    public static final class Result {
+        private final int device;
+        private final Exception error;
+        private final long elapsedNanos;
+
+        private Result(int device, Exception error, long elapsedNanos) {
+            this.device = device;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return device index as returned by {@link #addDevice(Object, Si5351)}
+         */
+        public int getDevice() {
+            return device;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return error thrown by the command, or null if succeeded
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * @return command run time on the bus thread, in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{device=" + device + ", error=" + error + ", elapsedNanos=" + elapsedNanos + "}";
+        }
+    }
+
+    private final List<Si5351> devices = new ArrayList<>();
+    private final List<ExecutorService> deviceExecutors = new ArrayList<>();
+    private final Map<Object, ExecutorService> busExecutors = new IdentityHashMap<>();
+    private boolean shutdown;
+
+    /**
+     * Add device at the given I2C address of the USB I2C adapter.
+     *
+     * @param adapter USB I2C adapter, which must be open
+     * @param i2cAddr device I2C address
+     * @return device index
+     */
+    public int addDevice(UsbI2cAdapter adapter, int i2cAddr) {
+        return addDevice(adapter, new Si5351(adapter, i2cAddr));
+    }
+
+    /**
+     * Add device on the given bus. Devices added with the same bus object
+     * are never accessed concurrently.
+     *
+     * @param bus object identifying the bus, e.g. the I2C adapter
+     * @param si5351 device
+     * @return device index
+     */
+    public synchronized int addDevice(Object bus, Si5351 si5351) {
+        if (shutdown) {
+            throw new IllegalStateException("Controller is shut down");
+        }
+        ExecutorService executor = busExecutors.get(bus);
+        if (executor == null) {
+            String name = "Si5351 bus " + busExecutors.size();
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            busExecutors.put(bus, executor);
+        }
+        devices.add(si5351);
+        deviceExecutors.add(executor);
+        return devices.size() - 1;
+    }
+
+    public synchronized int getDeviceCount() {
+        return devices.size();
+    }
+
+    public synchronized int getBusCount() {
+        return busExecutors.size();
+    }
+
+    /**
+     * Get device by index. The device must only be used from commands
+     * run by the controller.
+     *
+     * @param device device index
+     * @return device
+     */
+    public synchronized Si5351 getDevice(int device) {
+        return devices.get(device);
+    }
+
+    /**
+     * Run command on the device bus thread.
+     *
+     * @param device device index
+     * @param command command to run
+     * @return future completing with the command result
+     */
+    public Future<Result> submit(int device, Si5351CommandQueue.Command command) {
+        Si5351 si5351;
+        ExecutorService executor;
+        synchronized (this) {
+            si5351 = devices.get(device);
+            executor = deviceExecutors.get(device);
+        }
+        return executor.submit(() -> {
+            long start = System.nanoTime();
+            Exception error = null;
+            try {
+                command.run(si5351);
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+            return new Result(device, error, System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * Run command on all devices, concurrently on different buses,
+     * and wait for completion.
+     *
+     * @param command command to run
+     * @return results in device index order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Result> runAll(Si5351CommandQueue.Command command) throws InterruptedException {
+        int count = getDeviceCount();
+        List<Future<Result>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(submit(i, command));
+        }
+        List<Result> results = new ArrayList<>(count);
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                // Commands never complete exceptionally, except for errors
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Initialize all devices. See {@link Si5351#init(int, int, int)}.
+     *
+     * @param xtalLoadC crystal load capacitance (SI5351_CRYSTAL_LOAD_*PF)
+     * @param xoFreq reference oscillator frequency in Hz, or 0 for default
+     * @param corr frequency correction in parts-per-billion
+     * @return results in device index order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Result> init(int xtalLoadC, int xoFreq, int corr) throws InterruptedException {
+        return runAll(si5351 -> si5351.init(xtalLoadC, xoFreq, corr));
+    }
+
+    /**
+     * Apply frequency plan to all devices. See {@link Si5351#apply_plan(Si5351FrequencyPlan)}.
+     *
+     * @param plan frequency plan
+     * @return results in device index order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Result> applyPlan(Si5351FrequencyPlan plan) throws InterruptedException {
+        return runAll(si5351 -> si5351.apply_plan(plan));
+    }
+
+    /**
+     * Stop bus threads after already submitted commands are finished.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        for (ExecutorService executor : busExecutors.values()) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.util.Arrays;
+
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock;
+import static com.github.ykc3.android.si5351.Si5351.si5351_pll;
+
+/**
+ * Immutable assignment of output frequencies to PLLs, with PLL frequencies
+ * and multisynth parameters for all clock outputs, created by
+ * {@link Si5351FrequencyPlanner} and applied by
+ * {@link Si5351#apply_plan(Si5351FrequencyPlan)}.
+ *
+ * <p>Frequencies are in Hz * 100, as elsewhere in the library.
+ */
+public final class Si5351FrequencyPlan {
+    private final long[] pllFreq;
+    private final long[] targetFreq;
+    private final double[] actualFreq;
+    private final si5351_pll[] assignment;
+    private final int[] p1;
+    private final int[] p2;
+    private final int[] p3;
+    private final int[] rDiv;
+    private final boolean[] divBy4;
+    private final boolean[] intMode;
+
+    Si5351FrequencyPlan(long[] pllFreq, long[] targetFreq, double[] actualFreq, si5351_pll[] assignment,
+                        int[] p1, int[] p2, int[] p3, int[] rDiv, boolean[] divBy4, boolean[] intMode) {
+        this.pllFreq = pllFreq;
+        this.targetFreq = targetFreq;
+        this.actualFreq = actualFreq;
+        this.assignment = assignment;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.p3 = p3;
+        this.rDiv = rDiv;
+        this.divBy4 = divBy4;
+        this.intMode = intMode;
+    }
+
+    /**
+     * Get the PLL frequency.
+     *
+     * @param pll PLL
+     * @return PLL frequency, or 0 if no output is assigned to the PLL
+     */
+    public long getPllFreq(si5351_pll pll) {
+        return pllFreq[pll.ordinal()];
+    }
+
+    /**
+     * Check if the clock output is enabled by the plan.
+     *
+     * @param clk clock output
+     * @return true if the output has non-zero target frequency
+     */
+    public boolean isEnabled(si5351_clock clk) {
+        return targetFreq[clk.ordinal()] != 0;
+    }
+
+    /**
+     * Get the PLL driving the clock output.
+     *
+     * @param clk clock output
+     * @return PLL assigned to the output, or null if the output is disabled
+     */
+    public si5351_pll getPllAssignment(si5351_clock clk) {
+        return assignment[clk.ordinal()];
+    }
+
+    public long getTargetFreq(si5351_clock clk) {
+        return targetFreq[clk.ordinal()];
+    }
+
+    /**
+     * Get the output frequency resulting from the actual PLL and multisynth
+     * ratios, including the reference frequency correction.
+     *
+     * @param clk clock output
+     * @return actual output frequency
+     */
+    public double getActualFreq(si5351_clock clk) {
+        return actualFreq[clk.ordinal()];
+    }
+
+    /**
+     * Check if the output multisynth runs in integer mode, i.e. with an even
+     * integer divider, providing the lowest jitter.
+     *
+     * @param clk clock output
+     * @return true if the multisynth is in integer mode
+     */
+    public boolean isIntegerMode(si5351_clock clk) {
+        return intMode[clk.ordinal()];
+    }
+
+    public int getIntegerModeCount() {
+        int count = 0;
+        for (int i = 0; i < intMode.length; i++) {
+            if (targetFreq[i] != 0 && intMode[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the sum of absolute deviations of actual output frequencies from the target ones.
+     *
+     * @return total frequency error
+     */
+    public double getTotalError() {
+        double error = 0;
+        for (int i = 0; i < targetFreq.length; i++) {
+            if (targetFreq[i] != 0) {
+                error += Math.abs(actualFreq[i] - targetFreq[i]);
+            }
+        }
+        return error;
+    }
+
+    void getMsParams(si5351_clock clk, Si5351.Si5351RegSet reg) {
+        reg.p1 = p1[clk.ordinal()];
+        reg.p2 = p2[clk.ordinal()];
+        reg.p3 = p3[clk.ordinal()];
+    }
+
+    int getRDiv(si5351_clock clk) {
+        return rDiv[clk.ordinal()];
+    }
+
+    boolean isDivBy4(si5351_clock clk) {
+        return divBy4[clk.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Si5351FrequencyPlan{PLLA=").append(pllFreq[0])
+                .append(", PLLB=").append(pllFreq[1]);
+        for (int i = 0; i < targetFreq.length; i++) {
+            if (targetFreq[i] != 0) {
+                sb.append(", CLK").append(i).append('=').append(targetFreq[i])
+                        .append('/').append(assignment[i] == si5351_pll.SI5351_PLLA ? "PLLA" : "PLLB")
+                        .append(intMode[i] ? "/int" : "/frac");
+            }
+        }
+        return sb.append(", error=").append(getTotalError()).append('}').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Si5351FrequencyPlan)) {
+            return false;
+        }
+        Si5351FrequencyPlan that = (Si5351FrequencyPlan) o;
+        return Arrays.equals(pllFreq, that.pllFreq) && Arrays.equals(targetFreq, that.targetFreq)
+                && Arrays.equals(assignment, that.assignment) && Arrays.equals(p1, that.p1)
+                && Arrays.equals(p2, that.p2) && Arrays.equals(p3, that.p3)
+                && Arrays.equals(rDiv, that.rDiv) && Arrays.equals(divBy4, that.divBy4)
+                && Arrays.equals(intMode, that.intMode);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Arrays.hashCode(pllFreq);
+        hash = 31 * hash + Arrays.hashCode(targetFreq);
+        hash = 31 * hash + Arrays.hashCode(assignment);
+        hash = 31 * hash + Arrays.hashCode(p1);
+        hash = 31 * hash + Arrays.hashCode(p2);
+        return 31 * hash + Arrays.hashCode(p3);
+    }
+}
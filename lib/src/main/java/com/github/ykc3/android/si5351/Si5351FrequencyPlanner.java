@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.util.Arrays;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_CLKOUT67_MIN_FREQ;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_CLKOUT_MIN_FREQ;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_FREQ_MULT;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_MULTISYNTH67_A_MAX;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_MULTISYNTH67_MAX_FREQ;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_MULTISYNTH_A_MAX;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_MULTISYNTH_A_MIN;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_MULTISYNTH_DIVBY4_FREQ;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_MULTISYNTH_MAX_FREQ;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PLL_FIXED;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PLL_VCO_MAX;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PLL_VCO_MIN;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock;
+import static com.github.ykc3.android.si5351.Si5351.si5351_pll;
+
+/**
+ * Planner of PLL frequencies and PLL assignments for all clock outputs at once.
+ *
+ * <p>Unlike consecutive set_freq() calls, whose outcome depends on the call
+ * order, the planner searches all assignments of CLK0-CLK5 to PLLA and PLLB
+ * (CLK6 and CLK7 are driven by PLLB) and, for each PLL, frequencies giving
+ * an even integer multisynth divider to one of its outputs. The plan with
+ * the most outputs in integer mode is chosen, then the one with the lowest
+ * total frequency error.
+ *
+ * <p>Planner instances are not thread-safe.
+ */
+public class Si5351FrequencyPlanner {
+    private static final int CLOCK_COUNT = si5351_clock.values().length;
+    private static final int CLK6 = si5351_clock.SI5351_CLK6.ordinal();
+    private static final int MS67_MASK = (1 << CLK6) | (1 << (CLK6 + 1));
+
+    private static final long VCO_MIN = SI5351_PLL_VCO_MIN * SI5351_FREQ_MULT;
+    private static final long VCO_MAX = SI5351_PLL_VCO_MAX * SI5351_FREQ_MULT;
+    private static final long DIVBY4_FREQ = SI5351_MULTISYNTH_DIVBY4_FREQ * SI5351_FREQ_MULT;
+
+    // Minimum fractional multisynth divider
+    private static final int MS_FRAC_DIV_MIN = 8;
+
+    // Best solution for the outputs driven by a single PLL
+    private static final class Solution {
+        long pllFreq;
+        int intCount;
+        double error;
+        final double[] actualFreq = new double[CLOCK_COUNT];
+        final int[] p1 = new int[CLOCK_COUNT];
+        final int[] p2 = new int[CLOCK_COUNT];
+        final int[] p3 = new int[CLOCK_COUNT];
+        final boolean[] divBy4 = new boolean[CLOCK_COUNT];
+        final boolean[] intMode = new boolean[CLOCK_COUNT];
+
+        boolean isBetterThan(Solution s) {
+            return s == null || intCount > s.intCount || (intCount == s.intCount && error < s.error);
+        }
+
+        void copyFrom(Solution s) {
+            pllFreq = s.pllFreq;
+            intCount = s.intCount;
+            error = s.error;
+            System.arraycopy(s.actualFreq, 0, actualFreq, 0, CLOCK_COUNT);
+            System.arraycopy(s.p1, 0, p1, 0, CLOCK_COUNT);
+            System.arraycopy(s.p2, 0, p2, 0, CLOCK_COUNT);
+            System.arraycopy(s.p3, 0, p3, 0, CLOCK_COUNT);
+            System.arraycopy(s.divBy4, 0, divBy4, 0, CLOCK_COUNT);
+            System.arraycopy(s.intMode, 0, intMode, 0, CLOCK_COUNT);
+        }
+    }
+
+    private static final Solution EMPTY = new Solution();
+
+    private final Si5351 si5351;
+    private final Si5351.Si5351RegSet reg = new Si5351.Si5351RegSet();
+
+    // Per-plan state
+    private final long[] targetFreq = new long[CLOCK_COUNT];
+    private final long[] msFreq = new long[CLOCK_COUNT];
+    private final int[] rDiv = new int[CLOCK_COUNT];
+    private final Solution[][] solutions = new Solution[si5351_pll.values().length][1 << CLOCK_COUNT];
+    private final boolean[][] solved = new boolean[si5351_pll.values().length][1 << CLOCK_COUNT];
+
+    /**
+     * Create planner for the given device. Reference frequencies and
+     * corrections are taken from the device at planning time.
+     *
+     * @param si5351 device to plan frequencies for
+     */
+    public Si5351FrequencyPlanner(Si5351 si5351) {
+        this.si5351 = si5351;
+    }
+
+    /**
+     * Plan output frequencies.
+     *
+     * @param freqs target frequencies in Hz * 100 indexed by clock output number,
+     *              0 to disable the output; missing trailing outputs are disabled
+     * @return frequency plan
+     * @throws IllegalArgumentException if a frequency is out of range for its output,
+     *                                  or no plan satisfies all targets
+     */
+    public Si5351FrequencyPlan plan(long... freqs) {
+        if (freqs.length > CLOCK_COUNT) {
+            throw new IllegalArgumentException("Too many output frequencies: " + freqs.length);
+        }
+        Arrays.fill(targetFreq, 0);
+        System.arraycopy(freqs, 0, targetFreq, 0, freqs.length);
+
+        int active05 = 0;
+        int active67 = 0;
+        for (int i = 0; i < CLOCK_COUNT; i++) {
+            long freq = targetFreq[i];
+            if (freq == 0) {
+                continue;
+            }
+            if (i < CLK6) {
+                if (freq < SI5351_CLKOUT_MIN_FREQ * SI5351_FREQ_MULT
+                        || freq > SI5351_MULTISYNTH_MAX_FREQ * SI5351_FREQ_MULT) {
+                    throw new IllegalArgumentException("CLK" + i + " frequency out of range: " + freq);
+                }
+                rDiv[i] = si5351.select_r_div(freq);
+                active05 |= 1 << i;
+            } else {
+                if (freq < SI5351_CLKOUT67_MIN_FREQ * SI5351_FREQ_MULT
+                        || freq >= SI5351_MULTISYNTH67_MAX_FREQ * SI5351_FREQ_MULT) {
+                    throw new IllegalArgumentException("CLK" + i + " frequency out of range: " + freq);
+                }
+                rDiv[i] = si5351.select_r_div_ms67(freq);
+                active67 |= 1 << i;
+            }
+            msFreq[i] = freq << rDiv[i];
+        }
+
+        for (boolean[] s : solved) {
+            Arrays.fill(s, false);
+        }
+
+        // Try all assignments of CLK0-CLK5 to the PLLs, starting from all on PLLA
+        Solution bestA = null;
+        Solution bestB = null;
+        int bestMaskA = 0;
+        for (int maskA = active05; ; maskA = (maskA - 1) & active05) {
+            int maskB = (active05 & ~maskA) | active67;
+            Solution a = solve(si5351_pll.SI5351_PLLA, maskA);
+            Solution b = a != null ? solve(si5351_pll.SI5351_PLLB, maskB) : null;
+            if (b != null && (bestA == null || a.intCount + b.intCount > bestA.intCount + bestB.intCount
+                    || (a.intCount + b.intCount == bestA.intCount + bestB.intCount
+                    && a.error + b.error < bestA.error + bestB.error))) {
+                bestA = a;
+                bestB = b;
+                bestMaskA = maskA;
+            }
+            if (maskA == 0) {
+                break;
+            }
+        }
+
+        if (bestA == null) {
+            throw new IllegalArgumentException("No frequency plan satisfies all outputs");
+        }
+
+        return build(bestA, bestB, bestMaskA);
+    }
+
+    private Solution solve(si5351_pll pll, int mask) {
+        if (mask == 0) {
+            return EMPTY;
+        }
+        int p = pll.ordinal();
+        if (solved[p][mask]) {
+            return solutions[p][mask];
+        }
+
+        Solution best = null;
+        Solution candidate = new Solution();
+        long[] pllFreqs = candidatePllFreqs(mask);
+        for (long pllFreq : pllFreqs) {
+            if (evaluate(pll, pllFreq, mask, candidate) && candidate.isBetterThan(best)) {
+                if (best == null) {
+                    best = new Solution();
+                }
+                best.copyFrom(candidate);
+            }
+        }
+
+        solved[p][mask] = true;
+        solutions[p][mask] = best;
+        return best;
+    }
+
+    private long[] candidatePllFreqs(int mask) {
+        // PLL frequencies giving an even integer divider to at least one output
+        long[] pllFreqs = new long[64];
+        int count = 0;
+        pllFreqs[count++] = SI5351_PLL_FIXED;
+        for (int i = 0; i < CLOCK_COUNT; i++) {
+            if ((mask & (1 << i)) == 0) {
+                continue;
+            }
+            long freq = msFreq[i];
+            long divMin;
+            long divMax;
+            if (i < CLK6 && freq >= DIVBY4_FREQ) {
+                divMin = divMax = 4;
+            } else {
+                divMin = Math.max((VCO_MIN + freq - 1) / freq, SI5351_MULTISYNTH_A_MIN);
+                divMax = Math.min(VCO_MAX / freq, i < CLK6 ? SI5351_MULTISYNTH_A_MAX : SI5351_MULTISYNTH67_A_MAX);
+            }
+            for (long div = divMin + (divMin & 1); div <= divMax; div += 2) {
+                if (count == pllFreqs.length) {
+                    pllFreqs = Arrays.copyOf(pllFreqs, count * 2);
+                }
+                pllFreqs[count++] = div * freq;
+            }
+        }
+        pllFreqs = Arrays.copyOf(pllFreqs, count);
+        Arrays.sort(pllFreqs);
+        return pllFreqs;
+    }
+
+    private boolean evaluate(si5351_pll pll, long pllFreq, int mask, Solution s) {
+        if (pllFreq < VCO_MIN || pllFreq > VCO_MAX) {
+            return false;
+        }
+        int correction = si5351.get_correction(pll == si5351_pll.SI5351_PLLA
+                ? si5351.plla_ref_osc : si5351.pllb_ref_osc);
+        double actualPllFreq = si5351.pll_calc(pll, pllFreq, reg, correction, false);
+
+        s.pllFreq = pllFreq;
+        s.intCount = 0;
+        s.error = 0;
+        for (int i = 0; i < CLOCK_COUNT; i++) {
+            if ((mask & (1 << i)) == 0) {
+                continue;
+            }
+            long freq = msFreq[i];
+            long div = pllFreq / freq;
+            boolean evenInt = pllFreq % freq == 0 && div % 2 == 0;
+            double msActual;
+            if (i >= CLK6) {
+                // MS6 and MS7 only support even integer dividers
+                if (!evenInt || div < SI5351_MULTISYNTH_A_MIN || div > SI5351_MULTISYNTH67_A_MAX) {
+                    return false;
+                }
+                s.p1[i] = (int) div;
+                s.p2[i] = 0;
+                s.p3[i] = 0;
+                s.divBy4[i] = false;
+                s.intMode[i] = true;
+                msActual = actualPllFreq / div;
+            } else if (freq >= DIVBY4_FREQ) {
+                if (pllFreq != 4 * freq) {
+                    return false;
+                }
+                s.p1[i] = 0;
+                s.p2[i] = 0;
+                s.p3[i] = 1;
+                s.divBy4[i] = true;
+                s.intMode[i] = true;
+                msActual = actualPllFreq / 4;
+            } else {
+                if (evenInt && (div == SI5351_MULTISYNTH_A_MIN || div >= MS_FRAC_DIV_MIN)
+                        && div <= SI5351_MULTISYNTH_A_MAX) {
+                    s.p1[i] = (int) (128 * div - 512);
+                    s.p2[i] = 0;
+                    s.p3[i] = 1;
+                    s.intMode[i] = true;
+                } else {
+                    if (pllFreq < MS_FRAC_DIV_MIN * freq || pllFreq > SI5351_MULTISYNTH_A_MAX * freq) {
+                        return false;
+                    }
+                    si5351.multisynth_calc(freq, pllFreq, reg);
+                    s.p1[i] = reg.p1;
+                    s.p2[i] = reg.p2;
+                    s.p3[i] = reg.p3;
+                    s.intMode[i] = false;
+                }
+                s.divBy4[i] = false;
+                msActual = actualPllFreq * 128.0 * s.p3[i] / ((s.p1[i] + 512.0) * s.p3[i] + s.p2[i]);
+            }
+
+            s.actualFreq[i] = msActual / (1 << rDiv[i]);
+            s.error += Math.abs(s.actualFreq[i] - targetFreq[i]);
+            if (s.intMode[i]) {
+                s.intCount++;
+            }
+        }
+        return true;
+    }
+
+    private Si5351FrequencyPlan build(Solution a, Solution b, int maskA) {
+        long[] pllFreq = new long[]{a.pllFreq, b.pllFreq};
+        double[] actualFreq = new double[CLOCK_COUNT];
+        si5351_pll[] assignment = new si5351_pll[CLOCK_COUNT];
+        int[] p1 = new int[CLOCK_COUNT];
+        int[] p2 = new int[CLOCK_COUNT];
+        int[] p3 = new int[CLOCK_COUNT];
+        int[] r = new int[CLOCK_COUNT];
+        boolean[] divBy4 = new boolean[CLOCK_COUNT];
+        boolean[] intMode = new boolean[CLOCK_COUNT];
+        for (int i = 0; i < CLOCK_COUNT; i++) {
+            if (targetFreq[i] == 0) {
+                continue;
+            }
+            boolean onPllA = (maskA & (1 << i)) != 0;
+            Solution s = onPllA ? a : b;
+            assignment[i] = onPllA ? si5351_pll.SI5351_PLLA : si5351_pll.SI5351_PLLB;
+            actualFreq[i] = s.actualFreq[i];
+            p1[i] = s.p1[i];
+            p2[i] = s.p2[i];
+            p3[i] = s.p3[i];
+            r[i] = rDiv[i];
+            divBy4[i] = s.divBy4[i];
+            intMode[i] = s.intMode[i];
+        }
+        return new Si5351FrequencyPlan(pllFreq, targetFreq.clone(), actualFreq, assignment,
+                p1, p2, p3, r, divBy4, intMode);
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PARAMETERS_LENGTH;
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock;
+
+/**
+ * Frequency sweep of a single clock output, prepared by
+ * {@link Si5351#prepare_sweep(si5351_clock, long, long, long, long)}.
+ *
+ * <p>Multisynth register values of all steps are calculated up front, and
+ * each step only writes the contiguous range of registers that differ from
+ * the previous step, in a single burst. The first step is set with
+ * {@link Si5351#set_freq(long, si5351_clock)} to enable the output and
+ * program the control registers.
+ *
+ * <p>Steps are written on a dedicated thread, paced to the requested dwell
+ * time. A step written later than its deadline is counted as an overrun
+ * and the schedule restarts from it, rather than bursting to catch up.
+ * While the sweep is running, the Si5351 instance must not be used by
+ * other threads.
+ */
+public class Si5351FrequencySweep {
+    // Remaining wait time below which the sweep thread spins instead of parking
+    private static final long SPIN_THRESHOLD_NANOS = 100_000L;
+
+    public interface Listener {
+        /**
+         * Called on the sweep thread when the sweep finishes,
+         * is stopped or fails.
+         *
+         * @param sweep finished sweep
+         * @param error I/O error or runtime exception stopped the sweep, or null
+         */
+        void onSweepFinished(Si5351FrequencySweep sweep, Exception error);
+    }
+
+    private final Si5351 si5351;
+    private final si5351_clock clk;
+    private final long[] freqs;
+    private final long pllFreq;
+    private final long dwellNanos;
+
+    // Changed register range of each step relative to the previous one,
+    // the first step is relative to the last one when repeating
+    private final byte[] params;
+    private final byte[] diffOffset;
+    private final byte[] diffLength;
+
+    private final byte[] buffer = new byte[SI5351_PARAMETERS_LENGTH];
+
+    private boolean repeat;
+    private Listener listener;
+
+    private Thread thread;
+    private volatile boolean stopRequested;
+    private volatile long stepsWritten;
+    private volatile long overruns;
+    private volatile long startNanos;
+    private volatile long lastStepNanos;
+    private volatile Exception error;
+
+    Si5351FrequencySweep(Si5351 si5351, si5351_clock clk, long[] freqs, byte[] params,
+                         long pllFreq, long dwellNanos) {
+        this.si5351 = si5351;
+        this.clk = clk;
+        this.freqs = freqs;
+        this.params = params;
+        this.pllFreq = pllFreq;
+        this.dwellNanos = dwellNanos;
+
+        int steps = freqs.length;
+        diffOffset = new byte[steps];
+        diffLength = new byte[steps];
+        for (int i = 0; i < steps; i++) {
+            int base = i * SI5351_PARAMETERS_LENGTH;
+            int prev = ((i + steps - 1) % steps) * SI5351_PARAMETERS_LENGTH;
+            int first = 0;
+            while (first < SI5351_PARAMETERS_LENGTH && params[base + first] == params[prev + first]) {
+                first++;
+            }
+            int last = SI5351_PARAMETERS_LENGTH - 1;
+            while (last > first && params[base + last] == params[prev + last]) {
+                last--;
+            }
+            diffOffset[i] = (byte) first;
+            diffLength[i] = (byte) (last - first + 1);
+        }
+    }
+
+    public si5351_clock getClock() {
+        return clk;
+    }
+
+    public int getStepCount() {
+        return freqs.length;
+    }
+
+    /**
+     * Get frequency of the given step.
+     *
+     * @param step step index
+     * @return step frequency in Hz * 100
+     */
+    public long getFrequency(int step) {
+        return freqs[step];
+    }
+
+    public long getDwellNanos() {
+        return dwellNanos;
+    }
+
+    /**
+     * Get number of register bytes written by the given step,
+     * following the previous one.
+     *
+     * @param step step index
+     * @return number of bytes written
+     */
+    public int getStepBytes(int step) {
+        return diffLength[step];
+    }
+
+    /**
+     * Select whether the sweep restarts from the first step after the last one
+     * until stopped. Takes effect on the next {@link #start()}.
+     *
+     * @param repeat true to repeat the sweep
+     */
+    public synchronized void setRepeat(boolean repeat) {
+        this.repeat = repeat;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start the sweep on a new thread.
+     *
+     * @throws IllegalStateException if the sweep is already running or the
+     *                               PLL frequency changed since it was prepared
+     */
+    public synchronized void start() {
+        if (isRunning()) {
+            throw new IllegalStateException("Sweep is already running");
+        }
+        if (si5351.sweep_pll_freq(clk) != pllFreq) {
+            throw new IllegalStateException("PLL frequency changed since sweep was prepared");
+        }
+        stopRequested = false;
+        stepsWritten = 0;
+        overruns = 0;
+        error = null;
+        final boolean loop = repeat;
+        final Listener l = listener;
+        thread = new Thread(() -> run(loop, l), "Si5351 sweep " + clk);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop the sweep and wait for the sweep thread to finish.
+     * The output stays at the last written step frequency.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            stopRequested = true;
+            LockSupport.unpark(t);
+            t.join();
+        }
+    }
+
+    /**
+     * Wait for the sweep to finish.
+     *
+     * @param timeoutMs maximum time to wait in milliseconds, 0 to wait forever
+     * @return true if the sweep is finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean await(long timeoutMs) throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            t.join(timeoutMs);
+            return !t.isAlive();
+        }
+        return true;
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Get number of steps written since the sweep was started.
+     *
+     * @return number of steps written
+     */
+    public long getStepsWritten() {
+        return stepsWritten;
+    }
+
+    /**
+     * Get number of steps written later than their deadline.
+     *
+     * @return number of overruns
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Get step rate achieved so far.
+     *
+     * @return steps per second, or 0 if less than two steps were written
+     */
+    public double getAchievedRate() {
+        long steps = stepsWritten;
+        long elapsed = lastStepNanos - startNanos;
+        return (steps > 1 && elapsed > 0) ? (steps - 1) * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Get step rate requested by the dwell time.
+     *
+     * @return steps per second
+     */
+    public double getTargetRate() {
+        return 1e9 / dwellNanos;
+    }
+
+    /**
+     * Get the error stopped the last run of the sweep.
+     *
+     * @return I/O error or runtime exception, or null if none
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    private void run(boolean loop, Listener l) {
+        try {
+            startNanos = System.nanoTime();
+            long deadline = startNanos;
+            int step = 0;
+            while (!stopRequested) {
+                if (stepsWritten == 0) {
+                    si5351.set_freq(freqs[0], clk);
+                } else {
+                    int offset = diffOffset[step];
+                    int bytes = diffLength[step];
+                    System.arraycopy(params, step * SI5351_PARAMETERS_LENGTH + offset, buffer, 0, bytes);
+                    si5351.sweep_step(clk, freqs[step], offset, buffer, bytes);
+                }
+
+                long now = System.nanoTime();
+                lastStepNanos = now;
+                stepsWritten++;
+                if (now > deadline + dwellNanos) {
+                    // Step took longer than its dwell time, don't try to catch up
+                    overruns++;
+                    deadline = now;
+                } else {
+                    deadline += dwellNanos;
+                    waitUntil(deadline);
+                }
+
+                if (++step == freqs.length) {
+                    if (!loop) {
+                        break;
+                    }
+                    step = 0;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        } finally {
+            if (l != null) {
+                l.onSweepFinished(this, error);
+            }
+        }
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !stopRequested) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.IOException;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_DEVICE_STATUS;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_INTERRUPT_STATUS;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PLL_RESET;
+
+/**
+ * In-memory Si5351 register file, to run the library without hardware.
+ *
+ * <p>Device status register is read-only, interrupt status flags are
+ * cleared by writing zeros and PLL reset register is self-clearing,
+ * as on the real device. Each transfer may be delayed by a configurable
+ * latency to model the bus.
+ */
+public class Si5351MemoryTransport implements Si5351Transport {
+    private static final int REGISTER_FILE_SIZE = 256;
+
+    private final byte[] registers = new byte[REGISTER_FILE_SIZE];
+
+    private volatile long latencyNanos;
+    private long transferCount;
+
+    public Si5351MemoryTransport() {
+        this(0L);
+    }
+
+    /**
+     * Create in-memory register file.
+     *
+     * @param latencyNanos latency added to each transfer, in nanoseconds
+     */
+    public Si5351MemoryTransport(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    public void setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * Get the number of transfers issued so far.
+     *
+     * @return number of transfers
+     */
+    public synchronized long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * Get register value bypassing the device emulation.
+     *
+     * @param reg register address
+     * @return register value
+     */
+    public synchronized byte getRegister(int reg) {
+        return registers[reg];
+    }
+
+    /**
+     * Set register value bypassing the device emulation,
+     * e.g. to simulate status flags.
+     *
+     * @param reg register address
+     * @param data register value
+     */
+    public synchronized void setRegister(int reg, byte data) {
+        registers[reg] = data;
+    }
+
+    @Override
+    public byte readRegByte(int reg) throws IOException {
+        byte data;
+        synchronized (this) {
+            checkRange(reg, 1);
+            transferCount++;
+            data = registers[reg];
+        }
+        delay();
+        return data;
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        synchronized (this) {
+            checkRange(reg, length);
+            transferCount++;
+            System.arraycopy(registers, reg, buffer, 0, length);
+        }
+        delay();
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        synchronized (this) {
+            checkRange(reg, 1);
+            transferCount++;
+            store(reg, data);
+        }
+        delay();
+    }
+
+    @Override
+    public void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        synchronized (this) {
+            checkRange(reg, length);
+            transferCount++;
+            for (int i = 0; i < length; i++) {
+                store(reg + i, buffer[i]);
+            }
+        }
+        delay();
+    }
+
+    private void store(int reg, byte data) {
+        switch (reg) {
+            case SI5351_DEVICE_STATUS:
+            case SI5351_PLL_RESET:
+                // Read-only and self-clearing registers
+                break;
+            case SI5351_INTERRUPT_STATUS:
+                // Sticky flags are cleared by writing zeros
+                registers[reg] &= data;
+                break;
+            default:
+                registers[reg] = data;
+                break;
+        }
+    }
+
+    private static void checkRange(int reg, int length) throws IOException {
+        if (reg < 0 || length < 0 || reg + length > REGISTER_FILE_SIZE) {
+            throw new IOException("Invalid register range: " + reg + "+" + length);
+        }
+    }
+
+    private void delay() {
+        long latency = latencyNanos;
+        if (latency <= 0) {
+            return;
+        }
+        // Spin to model short latencies more precisely than sleeping would
+        long deadline = System.nanoTime() + latency;
+        while (System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_REGISTER_MAP_SIZE;
+
+/**
+ * Bus traffic and latency counters of Si5351 operations.
+ *
+ * <p>Each public Si5351 operation is accounted as a whole: transfers issued
+ * by nested operations (e.g. set_pll() called by set_freq()) are attributed
+ * to the outermost one. Per-register counters and totals include all
+ * transfers, also the ones issued outside of any operation.
+ *
+ * <p>Readback verification transfers are included in the read counters
+ * and also counted separately, to show the bus bandwidth spent on them.
+ *
+ * <p>Metrics are collected only while attached to a Si5351 instance
+ * with {@link Si5351#set_metrics(Si5351Metrics)}.
+ */
+public final class Si5351Metrics {
+    /**
+     * Immutable counters of a single operation type.
+     */
+    public static final class OperationStats {
+        private final String name;
+        private final long count;
+        private final long reads;
+        private final long writes;
+        private final long bursts;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long errors;
+        private final long verifyReads;
+        private final long bytesVerified;
+        private final long verifyMismatches;
+        private final long totalNanos;
+        private final long minNanos;
+        private final long maxNanos;
+
+        private OperationStats(String name, Counter c) {
+            this.name = name;
+            this.count = c.count;
+            this.reads = c.reads;
+            this.writes = c.writes;
+            this.bursts = c.bursts;
+            this.bytesRead = c.bytesRead;
+            this.bytesWritten = c.bytesWritten;
+            this.errors = c.errors;
+            this.verifyReads = c.verifyReads;
+            this.bytesVerified = c.bytesVerified;
+            this.verifyMismatches = c.verifyMismatches;
+            this.totalNanos = c.totalNanos;
+            this.minNanos = c.count > 0 ? c.minNanos : 0;
+            this.maxNanos = c.maxNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the number of completed operations.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the number of read transfers, single register and burst ones.
+         */
+        public long getReads() {
+            return reads;
+        }
+
+        /**
+         * Get the number of write transfers, single register and burst ones.
+         */
+        public long getWrites() {
+            return writes;
+        }
+
+        /**
+         * Get the number of transfers of more than one register.
+         */
+        public long getBursts() {
+            return bursts;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * Get the number of failed transfers.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Get the number of readback verification transfers, also included in {@link #getReads()}.
+         */
+        public long getVerifyReads() {
+            return verifyReads;
+        }
+
+        /**
+         * Get the number of bytes read back for verification, also included in {@link #getBytesRead()}.
+         */
+        public long getBytesVerified() {
+            return bytesVerified;
+        }
+
+        /**
+         * Get the number of registers read back with a value other than written.
+         */
+        public long getVerifyMismatches() {
+            return verifyMismatches;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMinNanos() {
+            return minNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getAverageNanos() {
+            return count > 0 ? totalNanos / count : 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{count=" + count + ", reads=" + reads + ", writes=" + writes
+                    + ", bursts=" + bursts + ", bytesRead=" + bytesRead
+                    + ", bytesWritten=" + bytesWritten + ", errors=" + errors
+                    + ", verifyReads=" + verifyReads + ", bytesVerified=" + bytesVerified
+                    + ", verifyMismatches=" + verifyMismatches
+                    + ", avgNanos=" + getAverageNanos() + ", minNanos=" + minNanos
+                    + ", maxNanos=" + maxNanos + "}";
+        }
+    }
+
+    /**
+     * Immutable copy of the metrics taken by {@link #snapshot()}.
+     */
+    public static final class Snapshot {
+        private final Map<String, OperationStats> operations;
+        private final OperationStats total;
+        private final long[] registerReads;
+        private final long[] registerWrites;
+
+        private Snapshot(Map<String, OperationStats> operations, OperationStats total,
+                         long[] registerReads, long[] registerWrites) {
+            this.operations = operations;
+            this.total = total;
+            this.registerReads = registerReads;
+            this.registerWrites = registerWrites;
+        }
+
+        /**
+         * Get per-operation counters.
+         *
+         * @return unmodifiable map of operation counters by operation (method) name
+         */
+        public Map<String, OperationStats> getOperations() {
+            return operations;
+        }
+
+        /**
+         * Get counters of the given operation.
+         *
+         * @param name operation (method) name, e.g. {@code "set_freq"}
+         * @return operation counters, or null if the operation was not run
+         */
+        public OperationStats getOperation(String name) {
+            return operations.get(name);
+        }
+
+        /**
+         * Get counters of all transfers. Operation count and latency
+         * cover the outermost operations only.
+         */
+        public OperationStats getTotal() {
+            return total;
+        }
+
+        /**
+         * Get the number of times the register was read, alone or as part of a burst.
+         *
+         * @param addr register address
+         */
+        public long getRegisterReads(int addr) {
+            return registerReads[addr];
+        }
+
+        /**
+         * Get the number of times the register was written, alone or as part of a burst.
+         *
+         * @param addr register address
+         */
+        public long getRegisterWrites(int addr) {
+            return registerWrites[addr];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Si5351Metrics{").append(total);
+            for (OperationStats stats : operations.values()) {
+                sb.append(", ").append(stats);
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    private static final class Counter {
+        long count;
+        long reads;
+        long writes;
+        long bursts;
+        long bytesRead;
+        long bytesWritten;
+        long errors;
+        long verifyReads;
+        long bytesVerified;
+        long verifyMismatches;
+        long totalNanos;
+        long minNanos = Long.MAX_VALUE;
+        long maxNanos;
+
+        void addTransfers(Counter c) {
+            reads += c.reads;
+            writes += c.writes;
+            bursts += c.bursts;
+            bytesRead += c.bytesRead;
+            bytesWritten += c.bytesWritten;
+            errors += c.errors;
+            verifyReads += c.verifyReads;
+            bytesVerified += c.bytesVerified;
+            verifyMismatches += c.verifyMismatches;
+        }
+
+        void addLatency(long nanos) {
+            count++;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        void clear() {
+            count = reads = writes = bursts = bytesRead = bytesWritten = errors = 0;
+            verifyReads = bytesVerified = verifyMismatches = 0;
+            totalNanos = maxNanos = 0;
+            minNanos = Long.MAX_VALUE;
+        }
+    }
+
+    private static final String TOTAL = "total";
+
+    private final Map<String, Counter> operations = new HashMap<>();
+    private final Counter total = new Counter();
+    private final long[] registerReads = new long[SI5351_REGISTER_MAP_SIZE];
+    private final long[] registerWrites = new long[SI5351_REGISTER_MAP_SIZE];
+
+    // Outermost operation in progress
+    private final Counter current = new Counter();
+    private String currentName;
+    private long currentStart;
+    private int depth;
+
+    /**
+     * Take a consistent copy of all counters.
+     *
+     * @return metrics snapshot
+     */
+    public synchronized Snapshot snapshot() {
+        Map<String, OperationStats> ops = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : operations.entrySet()) {
+            ops.put(entry.getKey(), new OperationStats(entry.getKey(), entry.getValue()));
+        }
+        return new Snapshot(Collections.unmodifiableMap(ops), new OperationStats(TOTAL, total),
+                registerReads.clone(), registerWrites.clone());
+    }
+
+    /**
+     * Clear all counters. An operation in progress is still accounted when it completes.
+     */
+    public synchronized void reset() {
+        operations.clear();
+        total.clear();
+        current.clear();
+        for (int i = 0; i < SI5351_REGISTER_MAP_SIZE; i++) {
+            registerReads[i] = 0;
+            registerWrites[i] = 0;
+        }
+    }
+
+    synchronized void operationBegin(String name) {
+        if (depth++ == 0) {
+            currentName = name;
+            currentStart = System.nanoTime();
+            current.clear();
+        }
+    }
+
+    synchronized void operationEnd() {
+        if (depth == 0 || --depth > 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - currentStart;
+        Counter counter = operations.get(currentName);
+        if (counter == null) {
+            counter = new Counter();
+            operations.put(currentName, counter);
+        }
+        counter.addTransfers(current);
+        counter.addLatency(nanos);
+        total.addLatency(nanos);
+        currentName = null;
+    }
+
+    synchronized void transferRead(int addr, int bytes) {
+        count(total, false, bytes);
+        if (depth > 0) {
+            count(current, false, bytes);
+        }
+        countRegisters(registerReads, addr, bytes);
+    }
+
+    synchronized void transferWrite(int addr, int bytes) {
+        count(total, true, bytes);
+        if (depth > 0) {
+            count(current, true, bytes);
+        }
+        countRegisters(registerWrites, addr, bytes);
+    }
+
+    synchronized void transferVerify(int addr, int bytes) {
+        transferRead(addr, bytes);
+        total.verifyReads++;
+        total.bytesVerified += bytes;
+        if (depth > 0) {
+            current.verifyReads++;
+            current.bytesVerified += bytes;
+        }
+    }
+
+    synchronized void verifyMismatch(int count) {
+        total.verifyMismatches += count;
+        if (depth > 0) {
+            current.verifyMismatches += count;
+        }
+    }
+
+    synchronized void transferError() {
+        total.errors++;
+        if (depth > 0) {
+            current.errors++;
+        }
+    }
+
+    private static void count(Counter c, boolean write, int bytes) {
+        if (write) {
+            c.writes++;
+            c.bytesWritten += bytes;
+        } else {
+            c.reads++;
+            c.bytesRead += bytes;
+        }
+        if (bytes > 1) {
+            c.bursts++;
+        }
+    }
+
+    private static void countRegisters(long[] counters, int addr, int bytes) {
+        int last = Math.min(addr + bytes, SI5351_REGISTER_MAP_SIZE);
+        for (int i = Math.max(addr, 0); i < last; i++) {
+            counters[i]++;
+        }
+    }
+}
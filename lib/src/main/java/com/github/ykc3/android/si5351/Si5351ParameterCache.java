@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PARAMETERS_LENGTH;
+
+/**
+ * Bounded LRU cache of packed PLL and multisynth parameters, attached to
+ * a device by {@link Si5351#set_parameter_cache(Si5351ParameterCache)}.
+ *
+ * <p>Multisynth parameters are keyed by output frequency (which determines
+ * the R divider) and PLL frequency, PLL parameters are keyed by PLL frequency,
+ * reference frequency and correction. Cache hits don't allocate memory.
+ */
+public final class Si5351ParameterCache {
+    static final int PLL = 0;
+    static final int MULTISYNTH = 1;
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final class Key {
+        int kind;
+        long freq;
+        long pllFreq;
+        long refFreq;
+        int correction;
+
+        Key set(int kind, long freq, long pllFreq, long refFreq, int correction) {
+            this.kind = kind;
+            this.freq = freq;
+            this.pllFreq = pllFreq;
+            this.refFreq = refFreq;
+            this.correction = correction;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return kind == key.kind && freq == key.freq && pllFreq == key.pllFreq
+                    && refFreq == key.refFreq && correction == key.correction;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = kind;
+            hash = 31 * hash + (int) (freq ^ (freq >>> 32));
+            hash = 31 * hash + (int) (pllFreq ^ (pllFreq >>> 32));
+            hash = 31 * hash + (int) (refFreq ^ (refFreq >>> 32));
+            return 31 * hash + correction;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<Key, byte[]> entries;
+
+    // Reused for lookups to keep cache hits allocation-free
+    private final Key lookupKey = new Key();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public Si5351ParameterCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create parameter cache.
+     *
+     * @param maxEntries maximum number of cached parameter sets,
+     *                   least recently used ones are evicted first
+     */
+    public Si5351ParameterCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                if (size() > Si5351ParameterCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of entries evicted to keep the cache within its size.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Drop all cached parameters. Statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Si5351ParameterCache{size=" + entries.size() + "/" + maxEntries + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    synchronized boolean get(int kind, long freq, long pllFreq, long refFreq, int correction, byte[] params) {
+        byte[] cached = entries.get(lookupKey.set(kind, freq, pllFreq, refFreq, correction));
+        if (cached == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        System.arraycopy(cached, 0, params, 0, SI5351_PARAMETERS_LENGTH);
+        return true;
+    }
+
+    synchronized void put(int kind, long freq, long pllFreq, long refFreq, int correction, byte[] params) {
+        byte[] cached = new byte[SI5351_PARAMETERS_LENGTH];
+        System.arraycopy(params, 0, cached, 0, SI5351_PARAMETERS_LENGTH);
+        entries.put(new Key().set(kind, freq, pllFreq, refFreq, correction), cached);
+    }
+}
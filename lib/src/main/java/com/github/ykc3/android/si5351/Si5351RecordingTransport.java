@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transport decorator recording every transfer, e.g. to compare
+ * bus traffic of different library operations.
+ */
+public class Si5351RecordingTransport implements Si5351Transport {
+    public enum Type {
+        READ, WRITE
+    }
+
+    public static final class Transfer {
+        private final Type type;
+        private final int reg;
+        private final byte[] data;
+        private final long durationNanos;
+
+        private Transfer(Type type, int reg, byte[] data, long durationNanos) {
+            this.type = type;
+            this.reg = reg;
+            this.data = data;
+            this.durationNanos = durationNanos;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getReg() {
+            return reg;
+        }
+
+        public int getLength() {
+            return data.length;
+        }
+
+        public byte[] getData() {
+            return data.clone();
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + reg + "+" + data.length + " " + Arrays.toString(data);
+        }
+    }
+
+    private final Si5351Transport transport;
+    private final List<Transfer> transfers = new ArrayList<>();
+
+    public Si5351RecordingTransport(Si5351Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Get transfers recorded so far.
+     *
+     * @return copy of the recorded transfers list
+     */
+    public synchronized List<Transfer> getTransfers() {
+        return new ArrayList<>(transfers);
+    }
+
+    public synchronized void clear() {
+        transfers.clear();
+    }
+
+    @Override
+    public byte readRegByte(int reg) throws IOException {
+        long start = System.nanoTime();
+        byte data = transport.readRegByte(reg);
+        record(Type.READ, reg, new byte[]{data}, start);
+        return data;
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        long start = System.nanoTime();
+        transport.readRegBuffer(reg, buffer, length);
+        record(Type.READ, reg, Arrays.copyOf(buffer, length), start);
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        long start = System.nanoTime();
+        transport.writeRegByte(reg, data);
+        record(Type.WRITE, reg, new byte[]{data}, start);
+    }
+
+    @Override
+    public void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        long start = System.nanoTime();
+        transport.writeRegBuffer(reg, buffer, length);
+        record(Type.WRITE, reg, Arrays.copyOf(buffer, length), start);
+    }
+
+    private synchronized void record(Type type, int reg, byte[] data, long start) {
+        transfers.add(new Transfer(type, reg, data, System.nanoTime() - start));
+    }
+}
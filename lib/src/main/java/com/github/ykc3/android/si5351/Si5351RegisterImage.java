@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.util.Arrays;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_REGISTER_MAP_SIZE;
+
+/**
+ * Immutable set of Si5351 register values. Registers not present
+ * in the image are left untouched when the image is written to a device.
+ */
+public final class Si5351RegisterImage {
+    private final byte[] values;
+    private final boolean[] present;
+
+    private Si5351RegisterImage(byte[] values, boolean[] present) {
+        this.values = values;
+        this.present = present;
+    }
+
+    /**
+     * Check if the image contains a value for the given register.
+     *
+     * @param addr register address
+     * @return true if the register value is present in the image
+     */
+    public boolean contains(int addr) {
+        return addr >= 0 && addr < SI5351_REGISTER_MAP_SIZE && present[addr];
+    }
+
+    /**
+     * Get the register value.
+     *
+     * @param addr register address
+     * @return register value
+     * @throws IllegalArgumentException if the image has no value for the register
+     */
+    public byte get(int addr) {
+        if (!contains(addr)) {
+            throw new IllegalArgumentException("No value for register " + addr);
+        }
+        return values[addr];
+    }
+
+    /**
+     * Get the number of register values present in the image.
+     *
+     * @return number of register values
+     */
+    public int size() {
+        int size = 0;
+        for (boolean p : present) {
+            if (p) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Si5351RegisterImage)) {
+            return false;
+        }
+        Si5351RegisterImage that = (Si5351RegisterImage) o;
+        if (!Arrays.equals(present, that.present)) {
+            return false;
+        }
+        for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+            if (present[addr] && values[addr] != that.values[addr]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+            hash = 31 * hash + (present[addr] ? values[addr] : -1);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Si5351RegisterImage{");
+        String sep = "";
+        for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+            if (present[addr]) {
+                sb.append(sep).append(addr).append('=').append(String.format("%02X", values[addr]));
+                sep = ", ";
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Create new register image builder.
+     *
+     * @return register image builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final byte[] values = new byte[SI5351_REGISTER_MAP_SIZE];
+        private final boolean[] present = new boolean[SI5351_REGISTER_MAP_SIZE];
+
+        private Builder() {
+        }
+
+        /**
+         * Set the register value.
+         *
+         * @param addr register address
+         * @param value register value
+         * @return this builder
+         */
+        public Builder set(int addr, byte value) {
+            if (addr < 0 || addr >= SI5351_REGISTER_MAP_SIZE) {
+                throw new IllegalArgumentException("Invalid register address: " + addr);
+            }
+            values[addr] = value;
+            present[addr] = true;
+            return this;
+        }
+
+        /**
+         * Copy all register values present in the given image.
+         *
+         * @param image register image to copy values from
+         * @return this builder
+         */
+        public Builder setAll(Si5351RegisterImage image) {
+            for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+                if (image.present[addr]) {
+                    set(addr, image.values[addr]);
+                }
+            }
+            return this;
+        }
+
+        public Si5351RegisterImage build() {
+            return new Si5351RegisterImage(values.clone(), present.clone());
+        }
+    }
+}
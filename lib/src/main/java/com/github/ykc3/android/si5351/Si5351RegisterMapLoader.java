@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_CLK0_PARAMETERS;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_CLK5_PARAMETERS;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PARAMETERS_LENGTH;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PLLA_PARAMETERS;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_PLLB_PARAMETERS;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_REGISTER_MAP_SIZE;
+
+/**
+ * Loader of register maps exported by vendor tools (ClockBuilder and alike).
+ *
+ * <p>Text maps list one register per line as an address/value pair separated
+ * by a comma, semicolon or whitespace, optionally wrapped in C-style braces.
+ * Values may be decimal, {@code 0x}-prefixed or {@code h}-suffixed hexadecimal.
+ * Lines starting with {@code #} or {@code //} and lines without numbers
+ * (column headers, C declarations) are ignored.
+ *
+ * <p>Binary maps are sequences of unsigned address/value byte pairs.
+ *
+ * <p>Reserved and read-only registers present in a map are dropped,
+ * since they are never written to the device.
+ */
+public final class Si5351RegisterMapLoader {
+    private Si5351RegisterMapLoader() {
+    }
+
+    /**
+     * Load register map in text form.
+     *
+     * @param reader register map text source
+     * @return validated register image
+     * @throws IOException in case of read error or malformed register map
+     */
+    public static Si5351RegisterImage loadText(Reader reader) throws IOException {
+        Si5351RegisterImage.Builder builder = Si5351RegisterImage.builder();
+        boolean[] seen = new boolean[SI5351_REGISTER_MAP_SIZE];
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("//")) {
+                continue;
+            }
+            List<String> tokens = new ArrayList<>();
+            boolean hasNumber = false;
+            for (String token : line.split("[\\s,;{}()]+")) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                    hasNumber |= parseNumber(token) >= 0;
+                }
+            }
+            if (!hasNumber) {
+                continue;
+            }
+            int addr = tokens.size() == 2 ? parseNumber(tokens.get(0)) : -1;
+            int value = tokens.size() == 2 ? parseNumber(tokens.get(1)) : -1;
+            if (addr < 0 || value < 0 || value > 0xFF) {
+                throw new IOException("Malformed register map line " + lineNumber + ": " + line);
+            }
+            add(builder, seen, addr, value, "line " + lineNumber);
+        }
+        return validate(builder.build());
+    }
+
+    /**
+     * Load register map in binary form.
+     *
+     * @param in register map binary source
+     * @return validated register image
+     * @throws IOException in case of read error or malformed register map
+     */
+    public static Si5351RegisterImage loadBinary(InputStream in) throws IOException {
+        Si5351RegisterImage.Builder builder = Si5351RegisterImage.builder();
+        boolean[] seen = new boolean[SI5351_REGISTER_MAP_SIZE];
+        int offset = 0;
+        int addr;
+        while ((addr = in.read()) >= 0) {
+            int value = in.read();
+            if (value < 0) {
+                throw new EOFException("Truncated register map at offset " + offset);
+            }
+            add(builder, seen, addr, value, "offset " + offset);
+            offset += 2;
+        }
+        return validate(builder.build());
+    }
+
+    /**
+     * Save register image in binary form, readable by {@link #loadBinary(InputStream)}.
+     *
+     * @param image register image to save
+     * @param out binary output
+     * @throws IOException in case of write error
+     */
+    public static void saveBinary(Si5351RegisterImage image, OutputStream out) throws IOException {
+        for (int addr = 0; addr < SI5351_REGISTER_MAP_SIZE; addr++) {
+            if (image.contains(addr)) {
+                out.write(addr);
+                out.write(image.get(addr));
+            }
+        }
+        out.flush();
+    }
+
+    private static void add(Si5351RegisterImage.Builder builder, boolean[] seen, int addr, int value,
+                            String location) throws IOException {
+        if (addr >= SI5351_REGISTER_MAP_SIZE) {
+            throw new IOException("Invalid register address " + addr + " at " + location);
+        }
+        if (seen[addr]) {
+            throw new IOException("Duplicate register address " + addr + " at " + location);
+        }
+        seen[addr] = true;
+        if (Si5351.is_writable_reg(addr)) {
+            builder.set(addr, (byte) value);
+        }
+    }
+
+    private static Si5351RegisterImage validate(Si5351RegisterImage image) throws IOException {
+        // PLL and multisynth parameters can only be applied as complete blocks
+        checkBlock(image, SI5351_PLLA_PARAMETERS, "PLLA");
+        checkBlock(image, SI5351_PLLB_PARAMETERS, "PLLB");
+        for (int addr = SI5351_CLK0_PARAMETERS; addr <= SI5351_CLK5_PARAMETERS; addr += SI5351_PARAMETERS_LENGTH) {
+            checkBlock(image, addr, "MS" + (addr - SI5351_CLK0_PARAMETERS) / SI5351_PARAMETERS_LENGTH);
+        }
+        return image;
+    }
+
+    private static void checkBlock(Si5351RegisterImage image, int first, String name) throws IOException {
+        int count = 0;
+        for (int addr = first; addr < first + SI5351_PARAMETERS_LENGTH; addr++) {
+            if (image.contains(addr)) {
+                count++;
+            }
+        }
+        if (count != 0 && count != SI5351_PARAMETERS_LENGTH) {
+            throw new IOException("Incomplete " + name + " parameters in register map");
+        }
+    }
+
+    private static int parseNumber(String token) {
+        try {
+            String t = token.toLowerCase();
+            if (t.startsWith("0x")) {
+                return Integer.parseInt(t.substring(2), 16);
+            }
+            if (t.endsWith("h")) {
+                return Integer.parseInt(t.substring(0, t.length() - 1), 16);
+            }
+            return Integer.parseInt(t);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.util.Arrays;
+
+import static com.github.ykc3.android.si5351.Si5351.si5351_clock;
+import static com.github.ykc3.android.si5351.Si5351.si5351_drive;
+import static com.github.ykc3.android.si5351.Si5351.si5351_pll;
+
+/**
+ * Immutable snapshot of the device state, published by
+ * {@link Si5351#get_state()} after each completed operation.
+ *
+ * <p>Snapshots may be read from any thread without locking and always
+ * reflect the state between two operations, never a partial update.
+ * Frequencies are in Hz * 100, as elsewhere in the library.
+ */
+public final class Si5351State {
+    private final long sequence;
+    private final long timestamp;
+    private final long[] clkFreq;
+    private final long pllaFreq;
+    private final long pllbFreq;
+    private final si5351_pll[] pllAssignment;
+    private final si5351_drive[] drive;
+    private final int enableMask;
+    private final int status;
+    private final int intStatus;
+
+    Si5351State(long sequence, long timestamp, long[] clkFreq, long pllaFreq, long pllbFreq,
+                si5351_pll[] pllAssignment, si5351_drive[] drive, int enableMask, int status, int intStatus) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.clkFreq = clkFreq;
+        this.pllaFreq = pllaFreq;
+        this.pllbFreq = pllbFreq;
+        this.pllAssignment = pllAssignment;
+        this.drive = drive;
+        this.enableMask = enableMask;
+        this.status = status;
+        this.intStatus = intStatus;
+    }
+
+    /**
+     * Get the snapshot sequence number, incremented on each publication.
+     *
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the snapshot publication time.
+     *
+     * @return {@link System#nanoTime()} at publication
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getClkFreq(si5351_clock clk) {
+        return clkFreq[clk.ordinal()];
+    }
+
+    public long getPllFreq(si5351_pll pll) {
+        return (pll == si5351_pll.SI5351_PLLA) ? pllaFreq : pllbFreq;
+    }
+
+    public si5351_pll getPllAssignment(si5351_clock clk) {
+        return pllAssignment[clk.ordinal()];
+    }
+
+    /**
+     * Get the output drive strength.
+     *
+     * @param clk clock output
+     * @return drive strength, or null if the output control register was not accessed yet
+     */
+    public si5351_drive getDriveStrength(si5351_clock clk) {
+        return drive[clk.ordinal()];
+    }
+
+    /**
+     * Get enabled outputs.
+     *
+     * @return bit mask of enabled outputs (bit 0 for CLK0), or -1 if
+     *         the output enable register was not accessed yet
+     */
+    public int getEnableMask() {
+        return enableMask;
+    }
+
+    public boolean isEnabled(si5351_clock clk) {
+        return enableMask >= 0 && (enableMask & (1 << clk.ordinal())) != 0;
+    }
+
+    /**
+     * Get the device status read by the last {@link Si5351#update_status()} call.
+     *
+     * @return SI5351_STATUS_* bits, or -1 if the status was not read yet
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the sticky status flags read by the last {@link Si5351#update_status()} call.
+     *
+     * @return SI5351_STATUS_* bits, or -1 if the status was not read yet
+     */
+    public int getIntStatus() {
+        return intStatus;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Si5351State{seq=").append(sequence)
+                .append(", PLLA=").append(pllaFreq).append(", PLLB=").append(pllbFreq);
+        for (int i = 0; i < clkFreq.length; i++) {
+            if (clkFreq[i] != 0) {
+                sb.append(", CLK").append(i).append('=').append(clkFreq[i])
+                        .append('/').append(pllAssignment[i] == si5351_pll.SI5351_PLLA ? "PLLA" : "PLLB");
+            }
+        }
+        return sb.append(", enabled=").append(Integer.toHexString(enableMask))
+                .append(", status=").append(Integer.toHexString(status)).append('}').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        // Compares device state only, regardless of sequence number and time
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Si5351State)) {
+            return false;
+        }
+        Si5351State that = (Si5351State) o;
+        return pllaFreq == that.pllaFreq && pllbFreq == that.pllbFreq && enableMask == that.enableMask
+                && status == that.status && intStatus == that.intStatus
+                && Arrays.equals(clkFreq, that.clkFreq) && Arrays.equals(pllAssignment, that.pllAssignment)
+                && Arrays.equals(drive, that.drive);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Arrays.hashCode(clkFreq);
+        hash = 31 * hash + Long.hashCode(pllaFreq);
+        hash = 31 * hash + Long.hashCode(pllbFreq);
+        hash = 31 * hash + Arrays.hashCode(pllAssignment);
+        return 31 * hash + enableMask;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.github.ykc3.android.si5351.Si5351.SI5351_STATUS_LOL_A;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_STATUS_LOL_B;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_STATUS_LOS;
+import static com.github.ykc3.android.si5351.Si5351.SI5351_STATUS_SYS_INIT;
+
+/**
+ * Si5351 lock and loss-of-signal status monitor.
+ *
+ * <p>Each {@link #poll()} reads both status registers in a single burst,
+ * clears the sticky flags it has seen and notifies listeners about status
+ * transitions, including transients that came and went between polls.
+ * The returned poll delay is short right after PLL parameters change and
+ * grows towards the slow interval while the status stays stable.
+ *
+ * <p>Polls must be issued from the thread owning the Si5351 instance,
+ * e.g. by re-posting to the same handler with the returned delay.
+ */
+public class Si5351StatusMonitor {
+    public static final int STATUS_FLAGS = SI5351_STATUS_SYS_INIT | SI5351_STATUS_LOL_B
+            | SI5351_STATUS_LOL_A | SI5351_STATUS_LOS;
+
+    public static final long DEFAULT_FAST_INTERVAL_MS = 10L;
+    public static final long DEFAULT_SLOW_INTERVAL_MS = 500L;
+    public static final long DEFAULT_SETTLE_PERIOD_MS = 200L;
+
+    public interface Listener {
+        /**
+         * Called on the polling thread when status flags change.
+         *
+         * @param status current status flags (SI5351_STATUS_* bits)
+         * @param changed flags changed since the last poll, including
+         *                transients caught by sticky flags only
+         */
+        void onStatusChanged(int status, int changed);
+    }
+
+    private final Si5351 si5351;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private int interruptMask = 0;
+    private long fastIntervalMs = DEFAULT_FAST_INTERVAL_MS;
+    private long slowIntervalMs = DEFAULT_SLOW_INTERVAL_MS;
+    private long settlePeriodMs = DEFAULT_SETTLE_PERIOD_MS;
+
+    private boolean configured;
+    private int status = -1;
+    private int pllChangeCount;
+    private long settleDeadlineNanos;
+    private long intervalMs;
+
+    public Si5351StatusMonitor(Si5351 si5351) {
+        this.si5351 = si5351;
+        this.pllChangeCount = si5351.get_pll_change_count();
+        this.intervalMs = fastIntervalMs;
+        this.settleDeadlineNanos = System.nanoTime();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Set interrupt mask written to the device on the next poll.
+     * By default, all status flags assert the INTR pin. Sticky flags
+     * used by the monitor are updated regardless of the mask.
+     *
+     * @param interruptMask SI5351_STATUS_* bits to mask
+     */
+    public synchronized void setInterruptMask(int interruptMask) {
+        this.interruptMask = interruptMask;
+        configured = false;
+    }
+
+    /**
+     * Set poll intervals.
+     *
+     * @param fastIntervalMs poll interval after PLL parameters change or status transition
+     * @param slowIntervalMs maximum poll interval while status is stable
+     * @param settlePeriodMs time to keep polling at fast interval after PLL change
+     */
+    public synchronized void setPollIntervals(long fastIntervalMs, long slowIntervalMs, long settlePeriodMs) {
+        if (fastIntervalMs <= 0 || slowIntervalMs < fastIntervalMs || settlePeriodMs < 0) {
+            throw new IllegalArgumentException("Invalid poll intervals");
+        }
+        this.fastIntervalMs = fastIntervalMs;
+        this.slowIntervalMs = slowIntervalMs;
+        this.settlePeriodMs = settlePeriodMs;
+        intervalMs = fastIntervalMs;
+    }
+
+    /**
+     * Get last polled status flags.
+     *
+     * @return SI5351_STATUS_* bits, or -1 if not polled yet
+     */
+    public synchronized int getStatus() {
+        return status;
+    }
+
+    /**
+     * Poll device status and notify listeners about changes.
+     *
+     * @return delay in milliseconds until the next poll
+     * @throws IOException in case of I/O error
+     */
+    public long poll() throws IOException {
+        int newStatus;
+        int changed;
+        synchronized (this) {
+            if (!configured) {
+                si5351.set_interrupt_mask(interruptMask);
+                configured = true;
+            }
+
+            // Monotonic clock, so the settle deadline doesn't move with wall clock adjustments
+            long now = System.nanoTime();
+            int count = si5351.get_pll_change_count();
+            if (count != pllChangeCount) {
+                // PLLs were retuned, watch lock state closely for a while
+                pllChangeCount = count;
+                settleDeadlineNanos = now + settlePeriodMs * 1_000_000L;
+            }
+
+            si5351.update_status();
+            newStatus = getStatusFlags();
+            int sticky = getStickyFlags();
+            if (sticky != 0) {
+                si5351.clear_int_status(sticky);
+            }
+
+            if (status < 0) {
+                changed = STATUS_FLAGS;
+            } else {
+                // Sticky bits of flags asserted now or before are set again right after
+                // clearing, count them as transients only while the flag is clear
+                changed = ((newStatus ^ status) | (sticky & ~newStatus & ~status)) & STATUS_FLAGS;
+            }
+            status = newStatus;
+
+            if (changed != 0 || now - settleDeadlineNanos < 0) {
+                intervalMs = fastIntervalMs;
+            } else {
+                intervalMs = Math.min(intervalMs * 2, slowIntervalMs);
+            }
+        }
+
+        if (changed != 0) {
+            for (Listener listener : listeners) {
+                listener.onStatusChanged(newStatus, changed);
+            }
+        }
+
+        return intervalMs;
+    }
+
+    private int getStatusFlags() {
+        Si5351.Si5351Status s = si5351.dev_status;
+        return (s.SYS_INIT ? SI5351_STATUS_SYS_INIT : 0) | (s.LOL_B ? SI5351_STATUS_LOL_B : 0)
+                | (s.LOL_A ? SI5351_STATUS_LOL_A : 0) | (s.LOS ? SI5351_STATUS_LOS : 0);
+    }
+
+    private int getStickyFlags() {
+        Si5351.Si5351IntStatus s = si5351.dev_int_status;
+        return (s.SYS_INIT_STKY ? SI5351_STATUS_SYS_INIT : 0) | (s.LOL_B_STKY ? SI5351_STATUS_LOL_B : 0)
+                | (s.LOL_A_STKY ? SI5351_STATUS_LOL_A : 0) | (s.LOS_STKY ? SI5351_STATUS_LOS : 0);
+    }
+}
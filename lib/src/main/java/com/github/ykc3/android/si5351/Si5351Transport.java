@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import java.io.IOException;
+
+/**
+ * Register access to a Si5351 device.
+ */
+public interface Si5351Transport {
+    /**
+     * Read single register.
+     *
+     * @param reg register address
+     * @return register value
+     * @throws IOException in case of I/O error
+     */
+    byte readRegByte(int reg) throws IOException;
+
+    /**
+     * Read consecutive registers in a single transfer.
+     *
+     * @param reg first register address
+     * @param buffer buffer to read register values to
+     * @param length number of registers to read
+     * @throws IOException in case of I/O error
+     */
+    void readRegBuffer(int reg, byte[] buffer, int length) throws IOException;
+
+    /**
+     * Write single register.
+     *
+     * @param reg register address
+     * @param data register value
+     * @throws IOException in case of I/O error
+     */
+    void writeRegByte(int reg, byte data) throws IOException;
+
+    /**
+     * Write consecutive registers in a single transfer.
+     *
+     * @param reg first register address
+     * @param buffer buffer with register values to write
+     * @param length number of registers to write
+     * @throws IOException in case of I/O error
+     */
+    void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2022 Victor Antonovich <v.antonovich@gmail.com>
+ *
+ *  This work is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2.1
+ *  of the License, or (at your option) any later version.
+ *
+ *  This work is distributed in the hope that it will be useful, but
+ *  without any warranty; without even the implied warranty of merchantability
+ *  or fitness for a particular purpose. See the GNU Lesser General Public
+ *  License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software Foundation, Inc.,
+ *  59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.
+ */
+
+package com.github.ykc3.android.si5351;
+
+import com.github.ykc3.android.usbi2c.UsbI2cAdapter;
+import com.github.ykc3.android.usbi2c.UsbI2cDevice;
+
+import java.io.IOException;
+
+/**
+ * Si5351 register access using USB I2C adapter.
+ */
+public class Si5351UsbI2cTransport implements Si5351Transport {
+    private final UsbI2cDevice device;
+
+    public Si5351UsbI2cTransport(UsbI2cAdapter i2cAdapter, int i2cAddress) {
+        this(i2cAdapter.getDevice(i2cAddress));
+    }
+
+    public Si5351UsbI2cTransport(UsbI2cDevice device) {
+        this.device = device;
+    }
+
+    @Override
+    public byte readRegByte(int reg) throws IOException {
+        return device.readRegByte(reg);
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        device.readRegBuffer(reg, buffer, length);
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        device.writeRegByte(reg, data);
+    }
+
+    @Override
+    public void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        device.writeRegBuffer(reg, buffer, length);
+    }
+}